@@ -14,33 +14,19 @@ public class ReadOplog {
         Mongo m = new Mongo();
         DB local = m.getDB( "local" );
         
-        DBCollection oplog = local.getCollection( "oplog.$main" );
+        DBCollection oplog = local.getCollection( OplogReader.OPLOG_MAIN );
         
-        DBObject last = null;
-        {
-            DBCursor lastCursor = oplog.find().sort( new BasicDBObject( "$natural" , -1 ) ).limit(1);
-            if ( ! lastCursor.hasNext() ){
-                System.out.println( "no oplog!" );
-                return;
-            }
-            last = lastCursor.next();
-        }
-        
-        BSONTimestamp ts = (BSONTimestamp)last.get("ts");
-        System.out.println( "starting point: " + ts );
+        final OplogReader reader = new OplogReader( oplog , null , new OplogReader.Listener(){
+                public void gotEntries( List<DBObject> entries ){
+                    for ( DBObject x : entries )
+                        System.out.println( "\t" + x );
+                }
+            } );
+        reader.start();
         
-        while ( true ){
-            System.out.println( "starting at ts: " + ts );
-            DBCursor cursor = oplog.find( new BasicDBObject( "ts" , new BasicDBObject( "$gt" , ts ) ) );
-            cursor.addOption( Bytes.QUERYOPTION_TAILABLE );
-            cursor.addOption( Bytes.QUERYOPTION_AWAITDATA );
-            while ( cursor.hasNext() ){
-                DBObject x = cursor.next();
-                ts = (BSONTimestamp)x.get("ts");
-                System.out.println( "\t" + x );
-            }
-            
+        while ( reader.isRunning() ){
             Thread.sleep( 1000 );
+            System.out.println( "checkpoint: " + reader.getCheckpoint() );
         }
     }
 }
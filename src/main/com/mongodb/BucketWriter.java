@@ -0,0 +1,298 @@
+// BucketWriter.java
+
+/**
+ *      Copyright (C) 2010 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.mongodb;
+
+import java.util.*;
+import java.util.logging.*;
+
+/**
+ * Writes time series samples into bucket documents, one per series and time window, rather
+ * than one document per sample:
+ * <blockquote><pre>
+ * { series : "cpu.host1" , start : Date , end : Date , n : 3 ,
+ *   samples : [ { t : Date , v : 0.93 } , { t : Date , v : 0.91 } , { t : Date , v : 0.97 } ] }
+ * </pre></blockquote>
+ * Samples are held per bucket and appended with <code>$pushAll</code> upserts, all the buckets
+ * of a flush in one {@link BulkWrite}, once {@link #setMaxPending maxPending} samples are waiting
+ * or the oldest has waited {@link #setMaxDelay maxDelay} ms.  {@link SampleCursor} reads them back
+ * one sample at a time.
+ *
+ * <p>As with {@link InsertBuffer}, errors from background flushes are only logged and counted,
+ * and samples not flushed when the JVM exits are lost, so call {@link #close} on shutdown.</p>
+ */
+public class BucketWriter {
+
+    /**
+     * @param buckets the collection of bucket documents
+     * @param bucketMillis length of a bucket's time window
+     */
+    public BucketWriter( DBCollection buckets , long bucketMillis ){
+        if ( bucketMillis <= 0 )
+            throw new IllegalArgumentException( "bucket length has to be > 0" );
+        _buckets = buckets;
+        _bucketMillis = bucketMillis;
+    }
+
+    /**
+     * Number of waiting samples that triggers a flush.  Defaults to 1000.
+     * @return this
+     */
+    public BucketWriter setMaxPending( int samples ){
+        if ( samples <= 0 )
+            throw new IllegalArgumentException( "maxPending has to be > 0" );
+        synchronized ( this ){
+            _maxPending = samples;
+            notifyAll();
+        }
+        return this;
+    }
+
+    /**
+     * The longest a sample waits before being flushed.  Defaults to 1000 ms.
+     * @return this
+     */
+    public BucketWriter setMaxDelay( long millis ){
+        if ( millis <= 0 )
+            throw new IllegalArgumentException( "maxDelay has to be > 0" );
+        synchronized ( this ){
+            _maxDelay = millis;
+            notifyAll();
+        }
+        return this;
+    }
+
+    /**
+     * Write concern flushes are sent with.  Defaults to the collection's.
+     * @return this
+     */
+    public BucketWriter setWriteConcern( WriteConcern concern ){
+        _concern = concern;
+        return this;
+    }
+
+    /**
+     * Adds a sample.
+     * @param series the series key, e.g. a metric name
+     * @param time when the sample was taken
+     * @param value anything that can be stored
+     */
+    public void add( Object series , Date time , Object value ){
+        boolean full;
+        synchronized ( this ){
+            if ( _closed )
+                throw new IllegalStateException( "bucket writer for " + _buckets.getFullName() + " is closed" );
+
+            Key k = new Key( series , getBucketStart( time ) );
+            List<DBObject> l = _pending.get( k );
+            if ( l == null ){
+                l = new ArrayList<DBObject>();
+                _pending.put( k , l );
+            }
+            l.add( new BasicDBObject( "t" , time ).append( "v" , value ) );
+
+            if ( _numPending++ == 0 ){
+                _firstAt = System.currentTimeMillis();
+                notifyAll();
+            }
+            full = _numPending >= _maxPending;
+
+            if ( _thread == null ){
+                _thread = new Flusher();
+                _thread.start();
+            }
+        }
+        if ( full )
+            flush();
+    }
+
+    /**
+     * Writes everything waiting, on the calling thread.
+     * @throws MongoException if the write fails, its samples are dropped
+     */
+    public void flush()
+        throws MongoException {
+        synchronized ( _writeLock ){
+            Map<Key,List<DBObject>> todo;
+            int num;
+            synchronized ( this ){
+                if ( _numPending == 0 )
+                    return;
+                todo = _pending;
+                num = _numPending;
+                _pending = new LinkedHashMap<Key,List<DBObject>>();
+                _numPending = 0;
+            }
+
+            try {
+                if ( ! _indexed ){
+                    _buckets.ensureIndex( new BasicDBObject( "series" , 1 ).append( "start" , 1 ) , "series_1_start_1" , true );
+                    _indexed = true;
+                }
+
+                BulkWrite b = _buckets.bulkWrite( true );
+                for ( Map.Entry<Key,List<DBObject>> e : todo.entrySet() ){
+                    Key k = e.getKey();
+                    List<DBObject> samples = e.getValue();
+                    BasicDBObject q = new BasicDBObject( "series" , k._series ).append( "start" , new Date( k._start ) );
+                    BasicDBObject o = new BasicDBObject();
+                    o.put( "$set" , new BasicDBObject( "end" , new Date( k._start + _bucketMillis ) ) );
+                    o.put( "$inc" , new BasicDBObject( "n" , samples.size() ) );
+                    if ( samples.size() == 1 )
+                        o.put( "$push" , new BasicDBObject( "samples" , samples.get( 0 ) ) );
+                    else
+                        o.put( "$pushAll" , new BasicDBObject( "samples" , samples ) );
+                    b.update( q , o , true , false );
+                }
+                b.execute( _concern == null ? _buckets.getWriteConcern() : _concern );
+                _numFlushes++;
+            }
+            catch ( RuntimeException e ){
+                _numFailed += num;
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Flushes, then stops the background thread.  Later adds throw.
+     */
+    public void close()
+        throws MongoException {
+        synchronized ( this ){
+            _closed = true;
+            notifyAll();
+        }
+        flush();
+    }
+
+    /**
+     * @return number of samples waiting to be written
+     */
+    public synchronized int size(){
+        return _numPending;
+    }
+
+    /**
+     * @return number of samples in flushes that failed
+     */
+    public long getNumFailed(){
+        return _numFailed;
+    }
+
+    /**
+     * @return number of flushes written
+     */
+    public long getNumFlushes(){
+        return _numFlushes;
+    }
+
+    /**
+     * @return the start of the bucket <code>time</code> goes into
+     */
+    public long getBucketStart( Date time ){
+        return time.getTime() - ( ( time.getTime() % _bucketMillis ) + _bucketMillis ) % _bucketMillis;
+    }
+
+    /**
+     * @return true if there's something to write now, false if closed and empty
+     */
+    private synchronized boolean _waitForFlush()
+        throws InterruptedException {
+        while ( true ){
+            if ( _numPending == 0 ){
+                if ( _closed )
+                    return false;
+                wait();
+                continue;
+            }
+
+            if ( _closed || _numPending >= _maxPending )
+                return true;
+
+            long left = _firstAt + _maxDelay - System.currentTimeMillis();
+            if ( left <= 0 )
+                return true;
+            wait( left );
+        }
+    }
+
+    class Flusher extends Thread {
+        Flusher(){
+            super( "BucketWriter - " + _buckets.getFullName() );
+            setDaemon( true );
+        }
+
+        public void run(){
+            while ( true ){
+                try {
+                    if ( ! _waitForFlush() )
+                        return;
+                    flush();
+                }
+                catch ( InterruptedException ie ){
+                    return;
+                }
+                catch ( Throwable t ){
+                    _logger.log( Level.WARNING , "writing buckets to " + _buckets.getFullName() + " failed" , t );
+                }
+            }
+        }
+    }
+
+    static class Key {
+        Key( Object series , long start ){
+            _series = series;
+            _start = start;
+        }
+
+        public int hashCode(){
+            return ( _series == null ? 0 : _series.hashCode() ) * 31 + (int)( _start ^ ( _start >>> 32 ) );
+        }
+
+        public boolean equals( Object o ){
+            if ( ! ( o instanceof Key ) )
+                return false;
+            Key other = (Key)o;
+            return _start == other._start && ( _series == null ? other._series == null : _series.equals( other._series ) );
+        }
+
+        final Object _series;
+        final long _start;
+    }
+
+    final DBCollection _buckets;
+    final long _bucketMillis;
+    private final Object _writeLock = new Object();
+
+    private int _maxPending = 1000;
+    private long _maxDelay = 1000;
+    private WriteConcern _concern;
+    private boolean _indexed = false;
+
+    private Map<Key,List<DBObject>> _pending = new LinkedHashMap<Key,List<DBObject>>();
+    private int _numPending = 0;
+    private long _firstAt;
+    private boolean _closed = false;
+    private Thread _thread;
+
+    private volatile long _numFailed = 0;
+    private volatile long _numFlushes = 0;
+
+    static final Logger _logger = Logger.getLogger( Bytes.LOGGER.getName() + ".bucketwriter" );
+}
@@ -0,0 +1,181 @@
+// BulkWrite.java
+
+/**
+ *      Copyright (C) 2010 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.mongodb;
+
+import java.util.*;
+
+/**
+ * Collects inserts, updates and removes on one collection and sends them all at once:
+ * the wire messages go back to back on one connection and, if the write concern asks for it,
+ * a single <code>getlasterror</code> follows, so the whole batch costs one round trip.
+ * <blockquote><pre>
+ * BulkWrite b = collection.bulkWrite( false );
+ * for ( Change c : changes )
+ *     b.update( new BasicDBObject( "_id" , c.id ) , new BasicDBObject( "$set" , c.fields ) , false , false );
+ * b.remove( new BasicDBObject( "expired" , true ) );
+ * b.execute( WriteConcern.SAFE );
+ * </pre></blockquote>
+ *
+ * <p>An <b>ordered</b> bulk is applied in the order the operations were added.  Adjacent inserts
+ * share messages, and the server stops a shared insert message at its first failing document.</p>
+ *
+ * <p>An <b>unordered</b> bulk sends all the inserts first, packed into as few messages as possible
+ * with continue-on-error set so one bad document (like a duplicate _id) doesn't stop the rest,
+ * then the updates and removes in the order they were added.</p>
+ *
+ * <p>In both modes later operations still run after one fails, and <code>getlasterror</code> only reports
+ * the last error, so use this where a failure means retrying the bulk rather than finding the bad operation.</p>
+ * @dochub bulk
+ */
+public class BulkWrite {
+
+    BulkWrite( DBCollection collection , boolean ordered ){
+        _collection = collection;
+        _ordered = ordered;
+    }
+
+    /**
+     * Adds documents to insert.  Like {@link DBCollection#insert}, an _id is added to
+     * documents that don't have one, when the bulk is executed.
+     * @return this
+     */
+    public BulkWrite insert( DBObject ... docs ){
+        for ( DBObject o : docs ){
+            if ( o == null )
+                throw new IllegalArgumentException( "can't insert null" );
+            _ops.add( new Op( Op.INSERT , null , o , false , false ) );
+        }
+        return this;
+    }
+
+    /**
+     * Adds an update, see {@link DBCollection#update( DBObject , DBObject , boolean , boolean )}.
+     * @return this
+     */
+    public BulkWrite update( DBObject q , DBObject o , boolean upsert , boolean multi ){
+        if ( q == null || o == null )
+            throw new IllegalArgumentException( "update needs a query and an object" );
+        _ops.add( new Op( Op.UPDATE , q , o , upsert , multi ) );
+        return this;
+    }
+
+    /**
+     * Adds an update of the first document matching <tt>q</tt>.
+     * @return this
+     */
+    public BulkWrite update( DBObject q , DBObject o ){
+        return update( q , o , false , false );
+    }
+
+    /**
+     * Adds an update of all the documents matching <tt>q</tt>.
+     * @return this
+     */
+    public BulkWrite updateMulti( DBObject q , DBObject o ){
+        return update( q , o , false , true );
+    }
+
+    /**
+     * Adds a remove of all the documents matching <tt>q</tt>.
+     * @return this
+     */
+    public BulkWrite remove( DBObject q ){
+        if ( q == null )
+            throw new IllegalArgumentException( "remove needs a query" );
+        _ops.add( new Op( Op.REMOVE , q , null , false , false ) );
+        return this;
+    }
+
+    /**
+     * @return number of operations added so far
+     */
+    public int size(){
+        return _ops.size();
+    }
+
+    public boolean isOrdered(){
+        return _ordered;
+    }
+
+    /**
+     * Sends everything using the collection's write concern.
+     */
+    public WriteResult execute()
+        throws MongoException {
+        return execute( _collection.getWriteConcern() );
+    }
+
+    /**
+     * Sends everything.  A bulk can only be executed once.
+     * @param concern if it calls <code>getlasterror</code>, that happens once after the last operation
+     * @return result of the last operation
+     * @throws IllegalStateException if already executed or empty
+     */
+    public WriteResult execute( WriteConcern concern )
+        throws MongoException {
+        if ( _executed )
+            throw new IllegalStateException( "bulk already executed" );
+        if ( _ops.size() == 0 )
+            throw new IllegalStateException( "nothing to do" );
+        _executed = true;
+
+        List<Op> ops = _ops;
+        if ( ! _ordered ){
+            ops = new ArrayList<Op>( _ops.size() );
+            for ( Op op : _ops )
+                if ( op._type == Op.INSERT )
+                    ops.add( op );
+            for ( Op op : _ops )
+                if ( op._type != Op.INSERT )
+                    ops.add( op );
+        }
+
+        return _collection.doBulk( ops , _ordered , concern );
+    }
+
+    public String toString(){
+        return "BulkWrite on " + _collection.getFullName() + ( _ordered ? " ordered" : " unordered" ) + " ops: " + _ops.size();
+    }
+
+    static class Op {
+        static final int UPDATE = 2001;
+        static final int INSERT = 2002;
+        static final int REMOVE = 2006;
+
+        Op( int type , DBObject q , DBObject o , boolean upsert , boolean multi ){
+            _type = type;
+            _q = q;
+            _o = o;
+            _upsert = upsert;
+            _multi = multi;
+        }
+
+        final int _type;
+        final DBObject _q;
+        final DBObject _o;
+        final boolean _upsert;
+        final boolean _multi;
+    }
+
+    final DBCollection _collection;
+    final boolean _ordered;
+
+    private final List<Op> _ops = new ArrayList<Op>();
+    private boolean _executed = false;
+}
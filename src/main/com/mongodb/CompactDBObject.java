@@ -0,0 +1,66 @@
+// CompactDBObject.java
+
+/**
+ *      Copyright (C) 2010 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.mongodb;
+
+import java.util.*;
+
+import org.bson.*;
+
+import com.mongodb.util.*;
+
+/**
+ * A <code>DBObject</code> with less memory per field than {@link BasicDBObject}, see {@link CompactBSONObject}.
+ * Collections return these with {@link DBCallback#COMPACT_FACTORY}.
+ */
+public class CompactDBObject extends CompactBSONObject implements DBObject {
+
+    public CompactDBObject(){
+    }
+
+    public CompactDBObject( int size ){
+        super( size );
+    }
+
+    public CompactDBObject( String key , Object value ){
+        super( key , value );
+    }
+
+    public CompactDBObject( Map m ){
+        super( m );
+    }
+
+    public boolean isPartialObject(){
+        return _isPartialObject;
+    }
+
+    public void markAsPartialObject(){
+        _isPartialObject = true;
+    }
+
+    public CompactDBObject append( String key , Object val ){
+        put( key , val );
+        return this;
+    }
+
+    public String toString(){
+        return JSON.serialize( this );
+    }
+
+    private boolean _isPartialObject = false;
+}
@@ -18,6 +18,7 @@
 
 package com.mongodb;
 
+import java.lang.ref.*;
 import java.util.*;
 import java.util.logging.*;
 
@@ -26,6 +27,8 @@ import org.bson.types.*;
 
 import com.mongodb.util.*;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 /** Database API
  * This cannot be directly instantiated, but the functions are available
@@ -38,6 +41,11 @@ public class DBApiLayer extends DB {
     static final int NUM_CURSORS_BEFORE_KILL = 100;
     static final int NUM_CURSORS_PER_BATCH = 20000;
     static final int CLEANER_INTERVAL = 10000;
+    /** log where cursors that were garbage collected without being closed or exhausted were created */
+    static final boolean REPORT_CURSOR_LEAKS = Boolean.getBoolean( "DB.CURSOR_LEAKS" );
+    /** bounds (ms) for sleeping between empty getmores on a tailable cursor without await data */
+    static final int TAIL_SLEEP_MIN = 10;
+    static final int TAIL_SLEEP_MAX = 500;
     
     //  --- show
 
@@ -154,7 +162,7 @@ public class DBApiLayer extends DB {
             soFar++;
 
             if ( soFar >= NUM_CURSORS_PER_BATCH ){
-                _connector.say( this , om ,com.mongodb.WriteConcern.NONE );
+                _connector.say( this , om ,com.mongodb.WriteConcern.NONE , addr );
                 om = new OutMessage( _mongo , 2007 );
                 om.writeInt( 0 ); // reserved
                 om.writeInt( Math.min( NUM_CURSORS_PER_BATCH , all.size() - totalSoFar ) );
@@ -166,6 +174,9 @@ public class DBApiLayer extends DB {
     }
 
 
+    /** insert flag: keep inserting the other documents of the message after one fails */
+    static final int INSERT_CONTINUE_ON_ERROR = 1;
+
     class MyCollection extends DBCollection {
         MyCollection( String name ){
             super( DBApiLayer.this , name );
@@ -200,38 +211,156 @@ public class DBApiLayer extends DB {
                 }
             }
             
+            return _insert( Arrays.asList( arr ).iterator() , 0 , false , concern );
+        }
+
+        public WriteResult insert( Iterator<DBObject> it , com.mongodb.WriteConcern concern )
+            throws MongoException {
+            return _insert( it , 0 , true , concern );
+        }
+
+        /**
+         * Encodes documents as they come off the iterator and sends each message as soon as it's full,
+         * so only one message's worth is ever held.
+         * @param apply whether to add _ids on the way
+         */
+        WriteResult _insert( Iterator<DBObject> it , int flags , boolean apply , com.mongodb.WriteConcern concern )
+            throws MongoException {
             WriteResult last = null;
 
-            int cur = 0;
-            while ( cur < arr.length ){
-                OutMessage om = new OutMessage( _mongo , 2002 );
-                
-                om.writeInt( 0 ); // reserved
-                om.writeCString( _fullNameSpace );
+            while ( it.hasNext() ){
+                OutMessage om = _insertMessage( flags );
                 
-                for ( ; cur<arr.length; cur++ ){
-                    DBObject o = arr[cur];
-                    int sz = om.putObject( o );
-                    if ( sz > Bytes.MAX_OBJECT_SIZE )
-                        throw new IllegalArgumentException( "object too big: " + sz );
-                    
-                    if ( om.size() > ( 4 * 1024 * 1024 ) ){
-                        cur++;
-                        break;
+                try {
+                    while ( it.hasNext() ){
+                        DBObject o = it.next();
+                        if ( apply ){
+                            if ( willTrace() ) trace( "save:  " + _fullNameSpace + " " + JSON.serialize( o ) );
+                            apply( o );
+                            Object id = o.get( "_id" );
+                            if ( id instanceof ObjectId )
+                                ((ObjectId)id).notNew();
+                        }
+                        if ( _putInsert( om , o ) )
+                            break;
                     }
                 }
+                catch ( RuntimeException re ){
+                    om.doneWithMessage();
+                    throw re;
+                }
                 
                 last = _connector.say( _db , om , concern );
             }
             
             return last;
         }
+
+        public WriteResult insertParallel( final DBObject[] arr , int parallelism , final com.mongodb.WriteConcern concern )
+            throws MongoException {
+
+            if ( parallelism <= 0 )
+                throw new IllegalArgumentException( "parallelism has to be > 0" );
+            if ( arr.length == 0 )
+                return null;
+
+            if ( willTrace() ) trace( "insertParallel: " + _fullNameSpace + " num: " + arr.length + " parallelism: " + parallelism );
+
+            for ( DBObject o : arr ){
+                apply( o );
+                Object id = o.get( "_id" );
+                if ( id instanceof ObjectId )
+                    ((ObjectId)id).notNew();
+            }
+
+            // a few batches per thread so a slow one doesn't hold everybody up
+            final int batch = Math.max( 1 , ( arr.length + parallelism * 4 - 1 ) / ( parallelism * 4 ) );
+            final int numBatches = ( arr.length + batch - 1 ) / batch;
+            parallelism = Math.min( parallelism , numBatches );
+
+            final AtomicInteger next = new AtomicInteger( 0 );
+            final SortedMap<Integer,MongoException> errors = Collections.synchronizedSortedMap( new TreeMap<Integer,MongoException>() );
+            final Map<Integer,Integer> ends = new ConcurrentHashMap<Integer,Integer>();
+            final WriteResult[] results = new WriteResult[numBatches];
+
+            final Runnable worker = new Runnable(){
+                    public void run(){
+                        while ( true ){
+                            int start = next.getAndAdd( batch );
+                            if ( start >= arr.length )
+                                return;
+                            int end = Math.min( arr.length , start + batch );
+                            try {
+                                results[ start / batch ] = _insert( Arrays.asList( arr ).subList( start , end ).iterator() , INSERT_CONTINUE_ON_ERROR , false , concern );
+                            }
+                            catch ( MongoException e ){
+                                ends.put( start , end );
+                                errors.put( start , e );
+                            }
+                            catch ( RuntimeException e ){
+                                ends.put( start , end );
+                                errors.put( start , new MongoException( "insert batch failed" , e ) );
+                            }
+                        }
+                    }
+                };
+
+            // the calling thread is one of the workers
+            final CountDownLatch done = new CountDownLatch( parallelism - 1 );
+            ThreadPool<Runnable> pool = _mongo._writers();
+            for ( int i=1; i<parallelism; i++ ){
+                pool.offer( new Runnable(){
+                        public void run(){
+                            try {
+                                worker.run();
+                            }
+                            finally {
+                                done.countDown();
+                            }
+                        }
+                    } );
+            }
+            worker.run();
+
+            try {
+                done.await();
+            }
+            catch ( InterruptedException ie ){
+                Thread.currentThread().interrupt();
+                throw new MongoException( "interrupted waiting for inserts" , ie );
+            }
+
+            if ( errors.size() > 0 )
+                throw new MongoException.BulkInsert( errors , ends , arr.length );
+            return results[ numBatches - 1 ];
+        }
+
+        OutMessage _insertMessage( int flags ){
+            OutMessage om = new OutMessage( _mongo , 2002 );
+            om.writeInt( flags );
+            om.writeCString( _fullNameSpace );
+            return om;
+        }
+
+        /**
+         * @return true if the message is full
+         */
+        boolean _putInsert( OutMessage om , DBObject o ){
+            int sz = om.putObject( o );
+            if ( sz > Bytes.MAX_OBJECT_SIZE )
+                throw new IllegalArgumentException( "object too big: " + sz );
+            return om.size() > ( 4 * 1024 * 1024 );
+        }
         
         public WriteResult remove( DBObject o , com.mongodb.WriteConcern concern )
             throws MongoException {
 
             if ( willTrace() ) trace( "remove: " + _fullNameSpace + " " + JSON.serialize( o ) );
 
+            return _connector.say( _db , _removeMessage( o ) , concern );
+        }
+
+        OutMessage _removeMessage( DBObject o ){
             OutMessage om = new OutMessage( _mongo , 2006 );
 
             om.writeInt( 0 ); // reserved
@@ -247,12 +376,11 @@ public class DBApiLayer extends DB {
                 om.writeInt( 0 );
 
             om.putObject( o );
-            
-            return _connector.say( _db , om , concern );
+            return om;
         }
 
         @Override
-        Iterator<DBObject> __find( DBObject ref , DBObject fields , int numToSkip , int batchSize , int options )
+        Iterator<DBObject> __find( DBObject ref , DBObject fields , int numToSkip , int batchSize , int options , DBCallback.Factory factory )
             throws MongoException {
             
             if ( ref == null )
@@ -261,10 +389,11 @@ public class DBApiLayer extends DB {
             if ( willTrace() ) trace( "find: " + _fullNameSpace + " " + JSON.serialize( ref ) );
             
             OutMessage query = OutMessage.query( _mongo , options , _fullNameSpace , numToSkip , batchSize , ref , fields );
+            query._callbackFactory = factory;
 
             Response res = _connector.call( _db , this , query , null , 2 );
 
-            if ( res.size() == 0 )
+            if ( res.size() == 0 && ! ( res.cursor() > 0 && ( options & Bytes.QUERYOPTION_TAILABLE ) != 0 ) )
                 return null;
             
             if ( res.size() == 1 ){
@@ -274,7 +403,7 @@ public class DBApiLayer extends DB {
                     throw e;
             }
             
-            return new Result( this , res , batchSize , options );
+            return new Result( this , res , batchSize , options , factory );
         }
 
         @Override
@@ -283,6 +412,10 @@ public class DBApiLayer extends DB {
 
             if ( willTrace() ) trace( "update: " + _fullNameSpace + " " + JSON.serialize( query ) );
             
+            return _connector.say( _db , _updateMessage( query , o , upsert , multi ) , concern );
+        }
+
+        OutMessage _updateMessage( DBObject query , DBObject o , boolean upsert , boolean multi ){
             OutMessage om = new OutMessage( _mongo , 2001 );
             om.writeInt( 0 ); // reserved
             om.writeCString( _fullNameSpace );
@@ -294,8 +427,55 @@ public class DBApiLayer extends DB {
 
             om.putObject( query );
             om.putObject( o );
-            
-            return _connector.say( _db , om , concern );
+            return om;
+        }
+
+        @Override
+        WriteResult doBulk( List<BulkWrite.Op> ops , boolean ordered , com.mongodb.WriteConcern concern )
+            throws MongoException {
+
+            if ( willTrace() ) trace( "bulk: " + _fullNameSpace + " ops: " + ops.size() + ( ordered ? " ordered" : " unordered" ) );
+
+            return _connector.say( _db , _bulkMessages( ops , ordered ) , concern );
+        }
+
+        /**
+         * the wire messages for ops, adjacent inserts share messages
+         */
+        List<OutMessage> _bulkMessages( List<BulkWrite.Op> ops , boolean ordered ){
+            List<OutMessage> msgs = new ArrayList<OutMessage>();
+            try {
+                OutMessage inserts = null;
+                for ( BulkWrite.Op op : ops ){
+                    if ( op._type != BulkWrite.Op.INSERT ){
+                        inserts = null;
+                        if ( op._type == BulkWrite.Op.UPDATE )
+                            msgs.add( _updateMessage( op._q , op._o , op._upsert , op._multi ) );
+                        else
+                            msgs.add( _removeMessage( op._q ) );
+                        continue;
+                    }
+
+                    apply( op._o );
+                    Object id = op._o.get( "_id" );
+                    if ( id instanceof ObjectId )
+                        ((ObjectId)id).notNew();
+
+                    if ( inserts == null ){
+                        inserts = _insertMessage( ordered ? 0 : INSERT_CONTINUE_ON_ERROR );
+                        msgs.add( inserts );
+                    }
+                    if ( _putInsert( inserts , op._o ) )
+                        inserts = null;
+                }
+            }
+            catch ( RuntimeException re ){
+                for ( OutMessage om : msgs )
+                    om.doneWithMessage();
+                throw re;
+            }
+
+            return msgs;
         }
         
         public void createIndex( final DBObject keys, final DBObject options )
@@ -314,12 +494,18 @@ public class DBApiLayer extends DB {
 
     class Result implements Iterator<DBObject> {
 
-        Result( MyCollection coll , Response res , int numToReturn , int options ){
+        Result( MyCollection coll , Response res , int numToReturn , int options , DBCallback.Factory factory ){
             init( res );
             _collection = coll;
             _numToReturn = numToReturn;
             _options = options;
+            _factory = factory;
             _host = res._host;
+
+            if ( res.cursor() > 0 ){
+                _ref = new CursorRef( this , _cursorRefQueue , res.cursor() , _host );
+                _liveCursors.add( _ref );
+            }
         }
 
         private void init( Response res ){
@@ -328,6 +514,9 @@ public class DBApiLayer extends DB {
             _cur = res.iterator();
             _sizes.add( res.size() );
 
+            if ( res.cursor() <= 0 )
+                _untrack();
+
             if ( ( res._flags & Bytes.RESULTFLAG_CURSORNOTFOUND ) > 0 ){
                 throw new MongoException.CursorNotFound();
             }
@@ -337,7 +526,7 @@ public class DBApiLayer extends DB {
             if ( _cur.hasNext() )
                 return _cur.next();
 
-            if ( ! _curResult.hasGetMore( _options ) )
+            if ( ! _curResult.hasGetMore( _options ) || ! _backoff() )
                 throw new RuntimeException( "no more" );
 
             _advance();
@@ -352,10 +541,35 @@ public class DBApiLayer extends DB {
                 if ( ! _curResult.hasGetMore( _options ) )
                     return false;
                 
+                if ( ! _backoff() )
+                    return false;
+
                 _advance();
             }
         }
 
+        /**
+         * a tailable cursor that the server won't block on would spin on empty getmores,
+         * so sleep between them, doubling up to the ceiling while the batches stay empty
+         * @return false if the thread was interrupted while waiting
+         */
+        private boolean _backoff(){
+            if ( _curResult.size() > 0 || _curResult.awaitsData( _options ) ){
+                _tailSleep = 0;
+                return true;
+            }
+
+            _tailSleep = _tailSleep == 0 ? _tailSleepMin : Math.min( _tailSleep * 2 , _tailSleepMax );
+            try {
+                Thread.sleep( _tailSleep );
+            }
+            catch ( InterruptedException ie ){
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            return true;
+        }
+
         private void _advance(){
 
             if ( _curResult.cursor() <= 0 )
@@ -367,6 +581,7 @@ public class DBApiLayer extends DB {
             m.writeCString( _collection._fullNameSpace );
             m.writeInt( _numToReturn ); // num to return
             m.writeLong( _curResult.cursor() );
+            m._callbackFactory = _factory;
             
             try {
                 Response res = _connector.call( DBApiLayer.this , _collection , m , _host );
@@ -382,6 +597,13 @@ public class DBApiLayer extends DB {
             throw new RuntimeException( "can't remove this way" );
         }
         
+        /**
+         * @return true if next() can be answered without going to the server
+         */
+        boolean hasBuffered(){
+            return _cur != null && _cur.hasNext();
+        }
+
         public int getNumberToReturn(){
         	return _numToReturn;
         }
@@ -390,13 +612,15 @@ public class DBApiLayer extends DB {
         	_numToReturn = num;
         }
 
-        public String toString(){
-            return "DBCursor";
+        void setTailBackoff( int min , int max ){
+            if ( min <= 0 || max < min )
+                throw new IllegalArgumentException( "bad tail backoff min: " + min + " max: " + max );
+            _tailSleepMin = min;
+            _tailSleepMax = max;
         }
 
-        protected void finalize() throws Throwable {
-            close();
-            super.finalize();
+        public String toString(){
+            return "DBCursor";
         }
 
         public long totalBytes(){
@@ -423,6 +647,7 @@ public class DBApiLayer extends DB {
                 long curId = _curResult.cursor();
                 _curResult = null;
                 _cur = null;
+                _untrack();
                 
                 if (curId > 0) {
                     List<Long> l = new ArrayList<Long>();
@@ -439,15 +664,31 @@ public class DBApiLayer extends DB {
         }
         
         
+        /**
+         * the server cursor is gone or someone else is responsible for it
+         */
+        private void _untrack(){
+            if ( _ref == null )
+                return;
+            _liveCursors.remove( _ref );
+            _ref.clear();
+            _ref = null;
+        }
+
         Response _curResult;
         Iterator<DBObject> _cur;
+        private CursorRef _ref;
         int _numToReturn;
         final MyCollection _collection;
         final int _options;
+        final DBCallback.Factory _factory;
         final ServerAddress _host; // host where first went.  all subsequent have to go there
 
         private long _totalBytes = 0;
         private int _numGetMores = 0;
+        private int _tailSleep = 0;
+        private int _tailSleepMin = TAIL_SLEEP_MIN;
+        private int _tailSleepMax = TAIL_SLEEP_MAX;
         private List<Integer> _sizes = new ArrayList<Integer>();
     }  // class Result
     
@@ -462,6 +703,43 @@ public class DBApiLayer extends DB {
         final ServerAddress host;
     }
 
+    /**
+     * Tracks a Result with a live server cursor.  If the Result gets garbage collected 
+     * before it is closed or exhausted this shows up on _cursorRefQueue and the cleaner kills the cursor.
+     * Must not reference the Result.
+     */
+    static class CursorRef extends PhantomReference<Result> {
+        CursorRef( Result r , ReferenceQueue<Result> q , long id , ServerAddress host ){
+            super( r , q );
+            _id = id;
+            _host = host;
+            _origin = REPORT_CURSOR_LEAKS ? new Throwable( "cursor " + id + " on " + host + " created here" ) : null;
+        }
+        
+        final long _id;
+        final ServerAddress _host;
+        final Throwable _origin;
+    }
+
+    /**
+     * moves all collected cursors from the reference queue to _deadCursorIds
+     * @return the number of cursors found
+     */
+    int _reclaimCursors( Reference<? extends Result> r ){
+        int n = 0;
+        while ( r != null ){
+            CursorRef c = (CursorRef)r;
+            if ( _liveCursors.remove( c ) ){
+                if ( c._origin != null )
+                    Bytes.LOGGER.log( Level.WARNING , "cursor " + c._id + " on " + c._host + " was never closed" , c._origin );
+                _deadCursorIds.add( new DeadCursor( c._id , c._host ) );
+                n++;
+            }
+            r = _cursorRefQueue.poll();
+        }
+        return n;
+    }
+
     class DBCleanerThread implements Runnable {
 
         Thread _thread;
@@ -482,7 +760,9 @@ public class DBApiLayer extends DB {
         public void run() {
             while (true) {
                 try {
-                    Thread.sleep(interval);
+                    // wakes up as soon as the gc finds abandoned cursors, and takes all that are waiting
+                    // so they go out as one killCursors per host
+                    _reclaimCursors( _cursorRefQueue.remove( interval ) );
                     _cleanCursors(true);
                 } catch (Throwable t) {
                     // thread must never die, print full stack
@@ -499,6 +779,8 @@ public class DBApiLayer extends DB {
     final Map<String,MyCollection> _collections = Collections.synchronizedMap( new HashMap<String,MyCollection>() );
     
     ConcurrentLinkedQueue<DeadCursor> _deadCursorIds = new ConcurrentLinkedQueue<DeadCursor>();
+    final ReferenceQueue<Result> _cursorRefQueue = new ReferenceQueue<Result>();
+    final Set<CursorRef> _liveCursors = Collections.synchronizedSet( new HashSet<CursorRef>() );
 
     static final List<DBObject> EMPTY = Collections.unmodifiableList( new LinkedList<DBObject>() );
 }
@@ -2,6 +2,7 @@
 
 package com.mongodb;
 
+import java.io.*;
 import java.util.*;
 import java.util.logging.*;
 
@@ -22,6 +23,35 @@ public class DBCallback extends BasicBSONCallback {
 
     public static Factory FACTORY = new DefaultFactory();
 
+    /**
+     * Like the default, but arrays of just ints, longs or doubles come back as {@link NumberList}s.
+     * <blockquote><pre>
+     * collection.setDBCallbackFactory( DBCallback.NUMBER_ARRAYS_FACTORY );
+     * </pre></blockquote>
+     */
+    public static final Factory NUMBER_ARRAYS_FACTORY = new Factory(){
+            public DBCallback create( DBCollection collection ){
+                DBCallback c = new DBCallback( collection );
+                c.setNumberArrays( true );
+                return c;
+            }
+        };
+
+    /**
+     * Like the default, but documents come back as {@link CompactDBObject}s, unless the collection
+     * has an object class set.
+     * <blockquote><pre>
+     * collection.setDBCallbackFactory( DBCallback.COMPACT_FACTORY );
+     * </pre></blockquote>
+     */
+    public static final Factory COMPACT_FACTORY = new Factory(){
+            public DBCallback create( DBCollection collection ){
+                DBCallback c = new DBCallback( collection );
+                c.setCompactObjects( true );
+                return c;
+            }
+        };
+
     public DBCallback( DBCollection coll ){
         _collection = coll;
         _db = _collection == null ? null : _collection.getDB();
@@ -41,6 +71,8 @@ public class DBCallback extends BasicBSONCallback {
     
     public Object objectDone(){
         BSONObject o = (BSONObject)super.objectDone();
+        if ( o instanceof TrackedDBObject )
+            ((TrackedDBObject)o).markClean();
         if ( ! ( o instanceof List ) && 
              o.containsKey( "$ref" ) && 
              o.containsKey( "$id" ) ){
@@ -96,6 +128,8 @@ public class DBCallback extends BasicBSONCallback {
         
         if ( _collection != null && _collection._name.equals( "$cmd" ) )
             return new CommandResult();
+        if ( isCompactObjects() )
+            return new CompactDBObject();
         return new BasicDBObject();
     }
 
@@ -103,6 +137,16 @@ public class DBCallback extends BasicBSONCallback {
         DBObject o = (DBObject)get();
         return o;
     }
+
+    /**
+     * reads one document off <code>in</code>
+     */
+    DBObject read( BSONDecoder decoder , InputStream in )
+        throws IOException {
+        reset();
+        decoder.decode( in , this );
+        return dbget();
+    }
     
     public void reset(){
         _lastName = null;
@@ -100,6 +100,70 @@ public abstract class DBCollection {
     }
 
 
+    /**
+     * Inserts the documents an iterator returns, encoding each one as it comes and sending
+     * a message whenever one is full, so at most one message's worth of documents (about 4mb)
+     * is held at a time whatever the number of documents.  Good for loading from a file or copying
+     * from a {@link DBCursor}.
+     * <p>Documents without an _id get one, as with {@link #insert( DBObject[] , WriteConcern )}.
+     * Messages sent before an error stay inserted.</p>
+     * @param it the documents
+     * @param concern checked after each message
+     * @return result of the last message, null if the iterator was empty
+     * @dochub insert
+     */
+    public abstract WriteResult insert( Iterator<DBObject> it , WriteConcern concern ) throws MongoException;
+
+    /**
+     * Inserts the documents an iterator returns with the collection's write concern,
+     * see {@link #insert( Iterator , WriteConcern )}.
+     * For an <code>Iterable</code> pass its <code>iterator()</code>.
+     * @dochub insert
+     */
+    public WriteResult insert( Iterator<DBObject> it )
+        throws MongoException {
+        return insert( it , getWriteConcern() );
+    }
+
+    /**
+     * Inserts documents with no guarantee of order, splitting them into batches sent
+     * at the same time over several pooled connections.  Each batch is encoded and sent
+     * by its own thread with continue-on-error set, so a bad document only fails its batch.
+     * Big loads can then go at the server's ingest rate instead of one socket's.
+     * <p>The writes don't happen on the calling thread's connection, even inside
+     * {@link DB#requestStart}.</p>
+     * @param arr documents to insert, an _id is added to those that don't have one
+     * @param parallelism the most connections to use
+     * @param concern checked for each batch
+     * @return result of the batch holding the last document
+     * @throws MongoException.BulkInsert holding the error of every batch that failed, after all the batches are done
+     * @dochub insert
+     */
+    public abstract WriteResult insertParallel( DBObject[] arr , int parallelism , WriteConcern concern ) throws MongoException;
+
+    /**
+     * Inserts documents in batches sent at the same time over several pooled connections,
+     * with the collection's write concern, see {@link #insertParallel( DBObject[] , int , WriteConcern )}.
+     * @dochub insert
+     */
+    public WriteResult insertParallel( List<DBObject> list , int parallelism )
+        throws MongoException {
+        return insertParallel( list.toArray( new DBObject[list.size()] ) , parallelism , getWriteConcern() );
+    }
+
+    /**
+     * Returns this collection's write-behind insert buffer, which batches inserts made one at a time
+     * (from any number of threads) into multi-document messages.  The buffer is created on the first call,
+     * and again after it was closed.
+     * @see InsertBuffer
+     * @dochub insert
+     */
+    public synchronized InsertBuffer getInsertBuffer(){
+        if ( _insertBuffer == null || _insertBuffer.isClosed() )
+            _insertBuffer = new InsertBuffer( this );
+        return _insertBuffer;
+    }
+
     /**
      * Performs an update operation.
      * @param q search query for old object to update
@@ -171,7 +235,30 @@ public abstract class DBCollection {
      * @return the objects, if found
      * @dochub find
      */
-    abstract Iterator<DBObject> __find( DBObject ref , DBObject fields , int numToSkip , int batchSize , int options ) throws MongoException ;
+    Iterator<DBObject> __find( DBObject ref , DBObject fields , int numToSkip , int batchSize , int options )
+        throws MongoException {
+        return __find( ref , fields , numToSkip , batchSize , options , null );
+    }
+
+    /**
+     * @param factory makes the callback the results are decoded with, null for this collection's
+     */
+    abstract Iterator<DBObject> __find( DBObject ref , DBObject fields , int numToSkip , int batchSize , int options , DBCallback.Factory factory ) throws MongoException ;
+
+    /**
+     * sends the operations of a {@link BulkWrite} on one connection, in the order given
+     */
+    abstract WriteResult doBulk( List<BulkWrite.Op> ops , boolean ordered , WriteConcern concern ) throws MongoException ;
+
+    /**
+     * Starts a bulk of inserts, updates and removes that will be sent in one go.
+     * @param ordered whether the operations have to be applied in the order they are added, see {@link BulkWrite}
+     * @return an empty bulk
+     * @dochub bulk
+     */
+    public BulkWrite bulkWrite( boolean ordered ){
+        return new BulkWrite( this , ordered );
+    }
     
     /** Finds an object.
      * @param ref query used to search
@@ -451,6 +538,35 @@ public abstract class DBCollection {
         return new DBCursor( this, new BasicDBObject(), null );
     }
 
+    /**
+     * Fetches one page of a sorted query using keyset pagination, see {@link DBCursor#page}.
+     * @param query the query
+     * @param sort the sort, <code>_id</code> is added to it to break ties
+     * @param pageSize the most documents on the page
+     * @param token the previous page's <code>getNextToken()</code>, or null for the first page
+     * @return the page
+     * @dochub paging
+     */
+    public final DBPage findPage( DBObject query , DBObject sort , int pageSize , String token )
+        throws MongoException {
+        return findPage( query , null , sort , pageSize , token );
+    }
+
+    /**
+     * Fetches one page of a sorted query using keyset pagination, see {@link DBCursor#page}.
+     * @param query the query
+     * @param fields fields to return, the sort fields are always returned
+     * @param sort the sort, <code>_id</code> is added to it to break ties
+     * @param pageSize the most documents on the page
+     * @param token the previous page's <code>getNextToken()</code>, or null for the first page
+     * @return the page
+     * @dochub paging
+     */
+    public final DBPage findPage( DBObject query , DBObject fields , DBObject sort , int pageSize , String token )
+        throws MongoException {
+        return find( query , fields ).sort( sort ).page( pageSize , token );
+    }
+
     /** 
      * Returns a single object from this collection.
      * @return the object found, or <code>null</code> if the collection is empty
@@ -548,6 +664,63 @@ public abstract class DBCollection {
         	return update( q , jo , true , false , concern );
         	
     }
+
+    /**
+     * Saves only what changed in a {@link TrackedDBObject} since it was loaded, as a
+     * <code>$set</code>/<code>$unset</code> update on its _id, with the collection's write concern.
+     * @see #saveChanges( DBObject , WriteConcern )
+     * @dochub update
+     */
+    public final WriteResult saveChanges( DBObject jo )
+        throws MongoException {
+        return saveChanges( jo , getWriteConcern() );
+    }
+
+    /**
+     * Saves only what changed in a {@link TrackedDBObject} since it was loaded, as a
+     * <code>$set</code>/<code>$unset</code> update on its _id.
+     * Anything else - another kind of <code>DBObject</code>, a new or untracked object, a changed _id -
+     * is saved whole like {@link #save( DBObject , WriteConcern )}.
+     * Afterwards the object is clean again.
+     * @param jo the object
+     * @param concern write concern
+     * @return the result, or null if nothing changed and nothing was sent
+     * @dochub update
+     */
+    public final WriteResult saveChanges( DBObject jo , WriteConcern concern )
+        throws MongoException {
+
+        if ( ! ( jo instanceof TrackedDBObject ) )
+            return save( jo , concern );
+
+        TrackedDBObject t = (TrackedDBObject)jo;
+        Object id = t.get( "_id" );
+
+        WriteResult res;
+        DBObject changes = null;
+        if ( id != null && t.isTracking() ){
+            try {
+                changes = t.getChanges();
+                if ( changes == null )
+                    return null;
+            }
+            catch ( IllegalStateException ise ){
+                // _id changed
+            }
+        }
+
+        if ( changes == null ){
+            res = save( t , concern );
+        }
+        else {
+            if ( checkReadOnly( true ) )
+                return null;
+            res = update( new BasicDBObject( "_id" , id ) , changes , false , false , concern );
+        }
+
+        t.markClean();
+        return res;
+    }
     
     // ---- DB COMMANDS ----
     /** Drops all indices from this collection
@@ -952,6 +1125,19 @@ public abstract class DBCollection {
         return _objectClass;
     }
 
+    /**
+     * Sets what documents read from this collection are decoded with, e.g. {@link LazyDBCallback#LAZY_FACTORY}
+     * to get {@link LazyDBObject}s.  null goes back to {@link DBCallback#FACTORY}.
+     */
+    public void setDBCallbackFactory( DBCallback.Factory factory ){
+        _callbackFactory = factory;
+    }
+
+    public DBCallback.Factory getDBCallbackFactory(){
+        DBCallback.Factory f = _callbackFactory;
+        return f == null ? DBCallback.FACTORY : f;
+    }
+
     public void setInternalClass( String path , Class c ){
         _internalClass.put( path , c );
     }
@@ -1017,9 +1203,11 @@ public abstract class DBCollection {
 
     protected List<DBObject> _hintFields;
     private WriteConcern _concern = null;
+    private InsertBuffer _insertBuffer = null;
     final Bytes.OptionHolder _options;
 
     protected Class _objectClass = null;
+    private volatile DBCallback.Factory _callbackFactory = null;
     private Map<String,Class> _internalClass = Collections.synchronizedMap( new HashMap<String,Class>() );
     private ReflectionDBObject.JavaWrapper _wrapper = null;
 
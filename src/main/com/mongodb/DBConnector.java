@@ -18,6 +18,8 @@
 
 package com.mongodb;
 
+import java.util.*;
+
 
 public interface DBConnector {
 
@@ -27,6 +29,7 @@ public interface DBConnector {
     
     public WriteResult say( DB db , OutMessage m , WriteConcern concern ) throws MongoException;
     public WriteResult say( DB db , OutMessage m , WriteConcern concern , ServerAddress hostNeeded ) throws MongoException;
+    public WriteResult say( DB db , List<OutMessage> msgs , WriteConcern concern ) throws MongoException;
     
     public Response call( DB db , DBCollection coll , OutMessage m ) throws MongoException;
     public Response call( DB db , DBCollection coll , OutMessage m , ServerAddress hostNeeded ) throws MongoException;
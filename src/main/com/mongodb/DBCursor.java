@@ -77,13 +77,22 @@ public class DBCursor implements Iterator<DBObject> , Iterable<DBObject> {
      * @return the new cursor
      */
     public DBCursor copy() {
-        DBCursor c = new DBCursor(_collection, _query, _keysWanted);
+        return _copy( _query , _keysWanted );
+    }
+
+    private DBCursor _copy( DBObject query , DBObject keys ){
+        DBCursor c = new DBCursor(_collection, query, keys);
         c._orderBy = _orderBy;
         c._hint = _hint;
         c._numWanted = _numWanted;
         c._skip = _skip;
         c._options = _options;
         c._batchSize = _batchSize;
+        c._tailSleepMin = _tailSleepMin;
+        c._tailSleepMax = _tailSleepMax;
+        c._callbackFactory = _callbackFactory;
+        if ( _maxInMemory > 0 )
+            c.maxInMemory( _maxInMemory );
         if ( _specialFields != null )
             c._specialFields = new BasicDBObject( _specialFields.toMap() );
         return c;
@@ -220,6 +229,26 @@ public class DBCursor implements Iterator<DBObject> , Iterable<DBObject> {
         return this;
     }
 
+    /**
+     * Controls how a tailable cursor waits for new data when the server can't block for it
+     * (no <code>QUERYOPTION_AWAITDATA</code>, or a server that isn't await capable).
+     * After an empty batch the cursor sleeps <tt>minMillis</tt>, doubling on each further 
+     * empty batch up to <tt>maxMillis</tt>, and goes back to the floor as soon as data shows up.
+     * @param minMillis the first (and shortest) sleep
+     * @param maxMillis the longest sleep
+     * @return same DBCursor for chaining operations
+     */
+    public DBCursor tailBackoff( int minMillis , int maxMillis ){
+        if ( minMillis <= 0 || maxMillis < minMillis )
+            throw new IllegalArgumentException( "bad tail backoff min: " + minMillis + " max: " + maxMillis );
+        if ( _it instanceof Result )
+            ((Result)_it).setTailBackoff( minMillis , maxMillis );
+
+        _tailSleepMin = minMillis;
+        _tailSleepMax = maxMillis;
+        return this;
+    }
+
     /**
      * Discards a given number of elements at the beginning of the cursor.
      * @param n the number of elements to skip
@@ -233,6 +262,138 @@ public class DBCursor implements Iterator<DBObject> , Iterable<DBObject> {
         return this;
     }
 
+    /**
+     * Fetches one page of results using keyset pagination.
+     * Instead of skipping, each page's query starts right after the sort key of the previous page's
+     * last document, which the token holds, so deep pages cost as little as the first one
+     * when there is an index on the sort fields.
+     * <code>_id</code> is appended to the sort (if not already in it) so that documents with the same sort values
+     * are neither repeated nor lost between pages.
+     * The sort fields, <code>_id</code> included, always come back, even if the fields wanted leave them out.
+     * This cursor is not iterated; the page is read with a copy of it.
+     * @param pageSize the most documents to return
+     * @param token <code>getNextToken()</code> of the previous page, or null for the first page
+     * @return the page
+     * @throws IllegalArgumentException if the token was made for a different sort
+     * @dochub paging
+     */
+    public DBPage page( int pageSize , String token )
+        throws MongoException {
+        if ( _it != null )
+            throw new IllegalStateException( "can't page after executing query" );
+        if ( pageSize <= 0 )
+            throw new IllegalArgumentException( "pageSize has to be > 0" );
+        if ( _skip > 0 )
+            throw new IllegalArgumentException( "can't page with skip" );
+
+        DBObject sort = DBPage.keysetSort( _orderBy );
+
+        DBObject q = _query;
+        if ( token != null )
+            q = DBPage.seek( _query , sort , DBPage.values( sort , token ) );
+
+        // the token is made from the sort fields of the last document, so they always have to come back
+        DBObject keys = _keysWanted;
+        if ( keys != null ){
+            if ( _isInclusion( keys ) ){
+                keys = new BasicDBObject( keys.toMap() );
+                for ( String k : sort.keySet() )
+                    keys.put( k , 1 );
+            }
+            else {
+                BasicDBObject ex = new BasicDBObject();
+                for ( String k : keys.keySet() )
+                    if ( ! _coversSortKey( k , sort ) )
+                        ex.put( k , keys.get( k ) );
+                keys = ex.size() == 0 ? null : ex;
+            }
+        }
+
+        // one extra to know if there is a next page
+        DBCursor c = _copy( q , keys );
+        c._orderBy = sort;
+        c._numWanted = pageSize + 1;
+        c._batchSize = pageSize + 1;
+
+        List<DBObject> docs = new ArrayList<DBObject>( Math.min( pageSize + 1 , 1000 ) );
+        try {
+            while ( docs.size() <= pageSize && c.hasNext() )
+                docs.add( c.next() );
+        }
+        finally {
+            c.close();
+        }
+
+        if ( docs.size() <= pageSize )
+            return new DBPage( docs , null );
+
+        docs.remove( pageSize );
+        return new DBPage( docs , DBPage.token( sort , docs.get( pageSize - 1 ) ) );
+    }
+
+    /**
+     * a projection is an inclusion if its first field other than _id is included,
+     * or it only has <code>_id : 1</code>
+     */
+    private static boolean _isInclusion( DBObject keys ){
+        for ( String k : keys.keySet() ){
+            if ( k.equals( "_id" ) )
+                continue;
+            return _included( keys.get( k ) );
+        }
+        return keys.containsField( "_id" ) && _included( keys.get( "_id" ) );
+    }
+
+    private static boolean _included( Object v ){
+        if ( v instanceof Number )
+            return ((Number)v).intValue() != 0;
+        if ( v instanceof Boolean )
+            return (Boolean)v;
+        return true;
+    }
+
+    /**
+     * true if excluding <code>field</code> would drop all or part of a sort key
+     */
+    private static boolean _coversSortKey( String field , DBObject sort ){
+        for ( String k : sort.keySet() )
+            if ( k.equals( field ) || k.startsWith( field + "." ) || field.startsWith( k + "." ) )
+                return true;
+        return false;
+    }
+
+    /**
+     * Bounds the memory used by the array api ({@link #toArray} and {@link #length}).
+     * The first <tt>n</tt> documents are kept in memory, the rest are written as BSON to a temp file
+     * and decoded again each time they're accessed, so random access still works on results that
+     * don't fit in the heap.  The file is deleted by {@link #close}.
+     * @param n the most documents to keep in memory, 0 for no limit
+     * @return same DBCursor for chaining operations
+     */
+    public DBCursor maxInMemory( int n ){
+        if ( _it != null || _cursorType != null )
+            throw new IllegalStateException( "can't set maxInMemory after executing query" );
+        if ( n < 0 )
+            throw new IllegalArgumentException( "maxInMemory has to be >= 0" );
+
+        _maxInMemory = n;
+        _all = n == 0 ? new ArrayList<DBObject>() : new SpillList( _collection , n , _keysWanted != null && _keysWanted.keySet().size() > 0 );
+        return this;
+    }
+
+    /**
+     * Sets what the results are decoded with, overriding the collection's
+     * {@link DBCollection#setDBCallbackFactory setting}.  E.g. {@link LazyDBCallback#LAZY_FACTORY}
+     * returns {@link LazyDBObject}s that only decode the fields that are read.
+     * @return same DBCursor for chaining operations
+     */
+    public DBCursor setDBCallbackFactory( DBCallback.Factory factory ){
+        if ( _it != null )
+            throw new IllegalStateException( "can't set the callback factory after executing query" );
+        _callbackFactory = factory;
+        return this;
+    }
+
     /** The cursor (id) on the server; 0 = no cursor */
     public long getCursorId() {
     	if ( _it instanceof Result )
@@ -245,6 +406,8 @@ public class DBCursor implements Iterator<DBObject> , Iterable<DBObject> {
     public void close() {
     	if ( _it instanceof Result )
             ((Result)_it).close();
+        if ( _all instanceof SpillList )
+            ((SpillList)_all).close();
     }
     
     /**
@@ -306,7 +469,9 @@ public class DBCursor implements Iterator<DBObject> , Iterable<DBObject> {
                 else
                     bs = Math.min( bs , _batchSize );
             }
-            _it = _collection.__find( foo , _keysWanted , _skip , bs , _options );
+            _it = _collection.__find( foo , _keysWanted , _skip , bs , _options , _callbackFactory );
+            if ( _it instanceof Result )
+                ((Result)_it).setTailBackoff( _tailSleepMin , _tailSleepMax );
         }
 
         if ( _it == null ){
@@ -400,12 +565,28 @@ public class DBCursor implements Iterator<DBObject> , Iterable<DBObject> {
         }
 
         if ( _cursorType == CursorType.ARRAY ){
-            _all.add( _cur );
+            if ( _all instanceof SpillList )
+                ((SpillList)_all)._add( _cur );
+            else
+                _all.add( _cur );
         }
 
         return _cur;
     }
 
+    /**
+     * @return true if the next element has already been fetched from the server
+     */
+    boolean hasBufferedNext(){
+        if ( _it == null )
+            return false;
+        if ( _numWanted > 0 && _num >= _numWanted )
+            return false;
+        if ( _it instanceof Result )
+            return ((Result)_it).hasBuffered();
+        return _it.hasNext();
+    }
+
     public int numGetMores(){
         if ( _fake )
             return 0;
@@ -604,6 +785,10 @@ public class DBCursor implements Iterator<DBObject> , Iterable<DBObject> {
     private int _skip = 0;
     private boolean _snapshot = false;
     private int _options = 0;
+    private int _tailSleepMin = DBApiLayer.TAIL_SLEEP_MIN;
+    private int _tailSleepMax = DBApiLayer.TAIL_SLEEP_MAX;
+    private int _maxInMemory = 0;
+    private DBCallback.Factory _callbackFactory = null;
 
     private DBObject _specialFields;
 
@@ -615,5 +800,5 @@ public class DBCursor implements Iterator<DBObject> , Iterable<DBObject> {
     private DBObject _cur = null;
     private int _num = 0;
 
-    private final ArrayList<DBObject> _all = new ArrayList<DBObject>();
+    private List<DBObject> _all = new ArrayList<DBObject>();
 }
@@ -0,0 +1,281 @@
+// DBPage.java
+
+/**
+ *      Copyright (C) 2010 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.mongodb;
+
+import java.util.*;
+
+import org.bson.*;
+
+import com.mongodb.util.*;
+
+/**
+ * One page of a keyset paged query, see {@link DBCursor#page}.
+ * <blockquote><pre>
+ * String token = null;
+ * do {
+ *     DBPage p = collection.find( query ).sort( new BasicDBObject( "date" , -1 ) ).page( 50 , token );
+ *     for ( DBObject o : p )
+ *         show( o );
+ *     token = p.getNextToken();
+ * } while ( token != null );
+ * </pre></blockquote>
+ * Rather than skipping, the next page's query starts right after the sort key of the last
+ * document of this page, so with an index on the sort fields every page costs the same.
+ * Sort fields can be null or missing in some documents, but otherwise each has to hold
+ * values of one type (all numbers count as one), as the range operators don't match across types.
+ * @dochub paging
+ */
+public class DBPage implements Iterable<DBObject> {
+
+    DBPage( List<DBObject> docs , String next ){
+        _docs = Collections.unmodifiableList( docs );
+        _next = next;
+    }
+
+    /**
+     * @return the documents on this page
+     */
+    public List<DBObject> getDocuments(){
+        return _docs;
+    }
+
+    public Iterator<DBObject> iterator(){
+        return _docs.iterator();
+    }
+
+    public int size(){
+        return _docs.size();
+    }
+
+    /**
+     * @return true if there is at least one more document after this page
+     */
+    public boolean hasNextPage(){
+        return _next != null;
+    }
+
+    /**
+     * @return token to pass to {@link DBCursor#page} for the following page, null if this is the last one
+     */
+    public String getNextToken(){
+        return _next;
+    }
+
+    public String toString(){
+        return "DBPage size: " + _docs.size() + " next: " + _next;
+    }
+
+    final List<DBObject> _docs;
+    final String _next;
+
+    // ---- keyset helpers ----
+
+    /**
+     * the sort paging uses: the requested sort plus _id so every document has a distinct key
+     */
+    static DBObject keysetSort( DBObject orderBy ){
+        BasicDBObject sort = new BasicDBObject();
+        if ( orderBy != null ){
+            for ( String k : orderBy.keySet() ){
+                if ( k.startsWith( "$" ) )
+                    throw new IllegalArgumentException( "can't page on " + k );
+                sort.put( k , _dir( orderBy.get( k ) ) );
+            }
+        }
+        if ( ! sort.containsField( "_id" ) )
+            sort.put( "_id" , 1 );
+        return sort;
+    }
+
+    static int _dir( Object o ){
+        if ( o instanceof Number )
+            return ((Number)o).intValue() < 0 ? -1 : 1;
+        throw new IllegalArgumentException( "sort direction has to be a number, not " + o );
+    }
+
+    /**
+     * @return opaque token holding the sort key of <code>last</code>
+     */
+    static String token( DBObject sort , DBObject last ){
+        List<Object> values = new ArrayList<Object>();
+        for ( String k : sort.keySet() )
+            values.add( _getPath( last , k ) );
+
+        BasicBSONObject t = new BasicBSONObject();
+        t.put( "s" , sort );
+        t.put( "v" , values );
+        return Util.toHex( BSON.encode( t ) );
+    }
+
+    /**
+     * @return the sort key values saved in <code>token</code>, in sort order
+     * @throws IllegalArgumentException if the token is bad or was made for another sort
+     */
+    static List<Object> values( DBObject sort , String token ){
+        BSONObject t;
+        try {
+            t = BSON.decode( Util.fromHex( token ) );
+        }
+        catch ( RuntimeException e ){
+            throw new IllegalArgumentException( "bad page token" , e );
+        }
+
+        BSONObject s = (BSONObject)t.get( "s" );
+        List values = (List)t.get( "v" );
+        if ( s == null || values == null || values.size() != sort.keySet().size() )
+            throw new IllegalArgumentException( "bad page token" );
+
+        Iterator<String> mine = sort.keySet().iterator();
+        for ( String k : s.keySet() ){
+            if ( ! mine.hasNext() )
+                throw new IllegalArgumentException( "page token is for another sort: " + s );
+            String m = mine.next();
+            if ( ! m.equals( k ) || _dir( sort.get( m ) ) != _dir( s.get( k ) ) )
+                throw new IllegalArgumentException( "page token is for another sort: " + s );
+        }
+
+        List<Object> l = new ArrayList<Object>();
+        for ( Object o : values )
+            l.add( o );
+        return l;
+    }
+
+    /**
+     * Adds the seek condition to <code>query</code>: documents strictly after <code>values</code> in <code>sort</code> order.
+     * For a sort of { a : 1 , b : -1 , _id : 1 } that is
+     * <pre>
+     * { a : { $gte : va } , $or : [ { a : { $gt : va } } ,
+     *                               { a : va , b : { $lt : vb } } ,
+     *                               { a : va , b : null } ,
+     *                               { a : va , b : vb , _id : { $gt : vid } } ] }
+     * </pre>
+     * The top level bound on the first key lets the server start the index scan at the right place.
+     * <p>
+     * A null value stands for null or missing, which sort before everything else.  Ascending, "after null" is
+     * <code>$ne : null</code> since <code>$gt : null</code> matches nothing.  Descending, every value gets an
+     * extra clause for null after it, like <code>{ a : va , b : null }</code> above.  The top level bound is
+     * left out when it would exclude nulls.  Other than that, <code>$gt</code> and <code>$lt</code> only match
+     * values of the same type, so each sort field has to hold one type (all numbers count as one).
+     * The <code>_id</code> alone case assumes <code>_id</code> isn't null.
+     * </p>
+     */
+    static DBObject seek( DBObject query , DBObject sort , List<Object> values ){
+        List<String> keys = new ArrayList<String>( sort.keySet() );
+
+        BasicDBObject q = new BasicDBObject();
+        if ( query != null )
+            q.putAll( query );
+
+        if ( keys.size() > 1 && q.containsField( QueryOperators.OR ) )
+            throw new IllegalArgumentException( "can't page a query that already uses $or when sorting on more than _id" );
+
+        String first = keys.get( 0 );
+        int firstDir = _dir( sort.get( first ) );
+
+        if ( keys.size() == 1 ){
+            _bound( q , first , _after( firstDir , values.get( 0 ) ) , values.get( 0 ) );
+            return q;
+        }
+
+        // null sorts first, so there's no bound after an ascending null or a descending value
+        if ( firstDir > 0 ? values.get( 0 ) != null : values.get( 0 ) == null )
+            _bound( q , first , firstDir > 0 ? QueryOperators.GTE : QueryOperators.LTE , values.get( 0 ) );
+
+        List<DBObject> or = new ArrayList<DBObject>();
+        for ( int i=0; i<keys.size(); i++ ){
+            BasicDBObject clause = new BasicDBObject();
+            for ( int j=0; j<i; j++ )
+                clause.put( keys.get( j ) , values.get( j ) );
+            int dir = _dir( sort.get( keys.get( i ) ) );
+            Object v = values.get( i );
+
+            BasicDBObject after = new BasicDBObject( clause );
+            after.put( keys.get( i ) , new BasicDBObject( _after( dir , v ) , v ) );
+            or.add( after );
+
+            if ( dir < 0 && v != null ){
+                // going down, null and missing come after every value
+                clause.put( keys.get( i ) , null );
+                or.add( clause );
+            }
+        }
+        q.put( QueryOperators.OR , or );
+        return q;
+    }
+
+    /**
+     * the operator matching values strictly after <code>value</code> in direction <code>dir</code>
+     */
+    static String _after( int dir , Object value ){
+        if ( dir < 0 )
+            return QueryOperators.LT; // nothing is below null, and $lt : null matches nothing
+        return value == null ? QueryOperators.NE : QueryOperators.GT;
+    }
+
+    /**
+     * adds field op value to q, keeping any other operators on field.
+     * an existing bound with the same operator is replaced: the new one comes from a document that matched it,
+     * so it can only be tighter.
+     */
+    static void _bound( BasicDBObject q , String field , String op , Object value ){
+        Object cur = q.get( field );
+        if ( cur == null ){
+            q.put( field , new BasicDBObject( op , value ) );
+            return;
+        }
+
+        if ( ! ( cur instanceof DBObject ) || ! _isOperatorObject( (DBObject)cur ) ){
+            // equality: every document already has that value
+            return;
+        }
+
+        BasicDBObject ops = new BasicDBObject();
+        ops.putAll( (DBObject)cur );
+        ops.put( op , value );
+        q.put( field , ops );
+    }
+
+    static boolean _isOperatorObject( DBObject o ){
+        if ( o.keySet().size() == 0 )
+            return false;
+        for ( String k : o.keySet() )
+            if ( ! k.startsWith( "$" ) )
+                return false;
+        return true;
+    }
+
+    /**
+     * @param path dotted field name
+     */
+    static Object _getPath( DBObject o , String path ){
+        Object cur = o;
+        int start = 0;
+        while ( cur != null ){
+            int idx = path.indexOf( '.' , start );
+            String f = idx < 0 ? path.substring( start ) : path.substring( start , idx );
+            if ( ! ( cur instanceof BSONObject ) )
+                return null;
+            cur = ((BSONObject)cur).get( f );
+            if ( idx < 0 )
+                return cur;
+            start = idx + 1;
+        }
+        return null;
+    }
+}
@@ -98,7 +98,7 @@ public class DBPort {
                 return null;
             
             _processingResponse = true;
-            return new Response( _sa , coll , _in , _decoder);
+            return new Response( _sa , coll , _in , _decoder , msg._callbackFactory );
         }
         catch ( IOException ioe ){
             close();
@@ -109,6 +109,19 @@ public class DBPort {
         }
     }
 
+    /**
+     * Sends a write with its getlasterror appended to the same buffer, and reads the getlasterror reply.
+     * One socket write instead of two for acknowledged writes.
+     */
+    synchronized CommandResult sayAndGetLastError( DB db , OutMessage msg , WriteConcern concern )
+        throws IOException {
+        msg.append( db.getName() , concern );
+        Response res = go( msg , db.getCollection( "$cmd" ) );
+        if ( res.size() != 1 )
+            throw new MongoInternalException( "something is wrong, getlasterror returned " + res.size() + " results" );
+        return (CommandResult)res.get( 0 );
+    }
+
     synchronized CommandResult getLastError( DB db , WriteConcern concern){
 	DBApiLayer dbAL = (DBApiLayer) db;
 	return runCommand( dbAL , concern.getCommand() );
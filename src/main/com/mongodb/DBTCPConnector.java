@@ -115,12 +115,8 @@ class DBTCPConnector implements DBConnector {
             throw new IllegalStateException( "this Mongo has been closed" );
     }
 
-    WriteResult _checkWriteError( DB db , MyPort mp , DBPort port , WriteConcern concern )
+    WriteResult _checkWriteError( CommandResult e , WriteConcern concern )
         throws MongoException {
-
-        CommandResult e = port.runCommand( db , concern.getCommand() );
-        mp.done( port );
-        
         Object foo = e.get( "err" );
         if ( foo == null )
             return new WriteResult( e , concern );
@@ -143,6 +139,20 @@ class DBTCPConnector implements DBConnector {
     
     public WriteResult say( DB db , OutMessage m , WriteConcern concern , ServerAddress hostNeeded )
         throws MongoException {
+        return _say( db , Collections.singletonList( m ) , concern , hostNeeded );
+    }
+
+    /**
+     * Writes all the messages back to back on one connection, then checks
+     * for an error once if the concern asks for it.
+     */
+    public WriteResult say( DB db , List<OutMessage> msgs , WriteConcern concern )
+        throws MongoException {
+        return _say( db , msgs , concern , null );
+    }
+
+    private WriteResult _say( DB db , List<OutMessage> msgs , WriteConcern concern , ServerAddress hostNeeded )
+        throws MongoException {
 
         _checkClosed();
         checkMaster( false , true );
@@ -152,14 +162,19 @@ class DBTCPConnector implements DBConnector {
         port.checkAuth( db );
 
         try {
-            port.say( m );
             if ( concern.callGetLastError() ){
-                return _checkWriteError( db , mp , port , concern );
-            }
-            else {
+                // the last write carries the getlasterror in the same socket write
+                for ( int i=0; i<msgs.size()-1; i++ )
+                    port.say( msgs.get( i ) );
+                CommandResult e = port.sayAndGetLastError( db , msgs.get( msgs.size() - 1 ) , concern );
                 mp.done( port );
-                return new WriteResult( db , port , concern );
+                return _checkWriteError( e , concern );
             }
+
+            for ( OutMessage m : msgs )
+                port.say( m );
+            mp.done( port );
+            return new WriteResult( db , port , concern );
         }
         catch ( IOException ioe ){
             mp.error( port , ioe );
@@ -181,7 +196,8 @@ class DBTCPConnector implements DBConnector {
             throw re;
         }
         finally {
-            m.doneWithMessage();
+            for ( OutMessage m : msgs )
+                m.doneWithMessage();
         }
     }
     
@@ -250,6 +266,29 @@ class DBTCPConnector implements DBConnector {
         return _curMaster.toString();
     }
 
+    /**
+     * Takes a connection to the master out of the pool for one user, like a {@link WriteWindow},
+     * until {@link #unpin}.
+     */
+    DBPort pin()
+        throws MongoException {
+        _checkClosed();
+        checkMaster( false , true );
+        return _curPortPool.get();
+    }
+
+    /**
+     * gives back a connection from {@link #pin}
+     * @param error what went wrong with the connection, or null
+     */
+    void unpin( DBPort port , Exception error ){
+        port._pool.done( port );
+        if ( error != null ){
+            port.close();
+            _error( error );
+        }
+    }
+
     boolean _error( Throwable t )
         throws MongoException {
         if ( _allHosts != null ){
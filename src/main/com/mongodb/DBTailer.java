@@ -0,0 +1,228 @@
+// DBTailer.java
+
+/**
+ *      Copyright (C) 2010 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.mongodb;
+
+import java.util.logging.*;
+
+import com.mongodb.util.*;
+
+/**
+ * Follows a capped collection with a tailable cursor and hands every new document
+ * to a {@link Listener} on a thread owned by the tailer.
+ * <blockquote><pre>
+ * DBTailer t = new DBTailer( db.getCollection( "events" ) , null , new DBTailer.Listener(){
+ *         public void gotDocument( DBObject o ){
+ *             System.out.println( o );
+ *         }
+ *     } );
+ * t.start();
+ * ...
+ * t.stop();
+ * </pre></blockquote>
+ *
+ * <p>The cursor asks for <code>QUERYOPTION_AWAITDATA</code> so a server that supports it
+ * blocks the getmore until something is inserted.  Otherwise the cursor backs off between
+ * empty batches, see {@link DBCursor#tailBackoff}.  If the cursor dies (the collection was empty,
+ * the cursor fell off the end of the capped collection, a network error...) the tailer waits the
+ * maximum backoff and re-queries, resuming after the last document it delivered.</p>
+ * @dochub tailable
+ */
+public class DBTailer implements Runnable {
+
+    /**
+     * Receives the documents read by a {@link DBTailer}.
+     * Calls are made one at a time, in order, from the tailer's thread.
+     */
+    public static interface Listener {
+        /**
+         * @param o the next document in the collection.
+         *          if this throws the document will be delivered again when the cursor is re-created
+         */
+        public void gotDocument( DBObject o ) throws Exception;
+    }
+
+    /**
+     * @param collection a capped collection
+     * @param query filter for the documents to tail, can be null
+     * @param listener gets called for each document
+     */
+    public DBTailer( DBCollection collection , DBObject query , Listener listener ){
+        this( collection , query , listener , true );
+    }
+
+    /**
+     * for subclasses that override {@link #consume} and don't need a listener
+     */
+    DBTailer( DBCollection collection , DBObject query , Listener listener , boolean needListener ){
+        if ( collection == null )
+            throw new IllegalArgumentException( "need a collection" );
+        if ( needListener && listener == null )
+            throw new IllegalArgumentException( "need a listener" );
+
+        _collection = collection;
+        _query = query == null ? new BasicDBObject() : query;
+        _listener = listener;
+    }
+
+    /**
+     * Sets the bounds of the sleep between empty batches when the server can't await data,
+     * and between re-creating a dead cursor.  Defaults to 10 and 500 ms.
+     * @param minMillis shortest sleep
+     * @param maxMillis longest sleep
+     * @return this
+     */
+    public DBTailer setBackoff( int minMillis , int maxMillis ){
+        if ( minMillis <= 0 || maxMillis < minMillis )
+            throw new IllegalArgumentException( "bad tail backoff min: " + minMillis + " max: " + maxMillis );
+        _minSleep = minMillis;
+        _maxSleep = maxMillis;
+        return this;
+    }
+
+    /**
+     * Whether to ask the server to block on empty getmores.  Defaults to true.
+     * @return this
+     */
+    public DBTailer setAwaitData( boolean awaitData ){
+        _awaitData = awaitData;
+        return this;
+    }
+
+    /**
+     * Starts tailing on a new daemon thread.
+     * @throws IllegalStateException if already started
+     */
+    public synchronized void start(){
+        if ( _thread != null )
+            throw new IllegalStateException( "already started" );
+
+        _running = true;
+        _thread = new Thread( this );
+        _thread.setName( "DBTailer - " + _collection.getFullName() );
+        _thread.setDaemon( true );
+        _thread.start();
+    }
+
+    /**
+     * Stops tailing.  The listener won't be called after the current document (if any) is done.
+     * A getmore waiting on the server for data can take a few seconds to come back,
+     * so the thread may live a little longer than this call.
+     */
+    public synchronized void stop(){
+        _running = false;
+        if ( _thread != null )
+            _thread.interrupt();
+    }
+
+    /**
+     * @return true if started and not stopped
+     */
+    public boolean isRunning(){
+        return _running;
+    }
+
+    /**
+     * @return the last document handed to the listener without error, or null
+     */
+    public DBObject getLast(){
+        return _last;
+    }
+
+    public void run(){
+        while ( _running ){
+            DBCursor cursor = null;
+            try {
+                cursor = createCursor( _last );
+                consume( cursor );
+            }
+            catch ( Throwable t ){
+                if ( _running )
+                    _logger.log( Level.WARNING , "tailing " + _collection.getFullName() + " failed, will re-query" , t );
+            }
+            finally {
+                if ( cursor != null ){
+                    try {
+                        cursor.close();
+                    }
+                    catch ( Throwable t ){
+                        // the cleaner will get it
+                    }
+                }
+            }
+
+            if ( _running )
+                ThreadUtil.sleep( _maxSleep );
+        }
+    }
+
+    /**
+     * Reads the cursor until it dies or the tailer is stopped.
+     */
+    void consume( DBCursor cursor )
+        throws Exception {
+        while ( _running && cursor.hasNext() ){
+            DBObject o = cursor.next();
+            _listener.gotDocument( o );
+            _last = o;
+        }
+    }
+
+    /**
+     * Builds the tailable cursor, called on start and every time the previous cursor died.
+     * By default this re-runs the query, and when something was already delivered
+     * only asks for <code>_id</code>s greater than the last one, which works for the
+     * ascending <code>ObjectId</code>s the driver generates.
+     * Override this to resume on something else.
+     * @param last the last document delivered, null if none yet
+     */
+    protected DBCursor createCursor( DBObject last ){
+        DBObject q = _query;
+        if ( last != null && last.get( "_id" ) != null && ! _query.containsField( "_id" ) ){
+            q = new BasicDBObject();
+            q.putAll( _query );
+            q.put( "_id" , new BasicDBObject( "$gt" , last.get( "_id" ) ) );
+        }
+        return tailable( _collection.find( q ) );
+    }
+
+    /**
+     * Sets the tailing options and backoff on a cursor.
+     */
+    protected DBCursor tailable( DBCursor cursor ){
+        cursor.addOption( Bytes.QUERYOPTION_TAILABLE );
+        if ( _awaitData )
+            cursor.addOption( Bytes.QUERYOPTION_AWAITDATA );
+        cursor.tailBackoff( _minSleep , _maxSleep );
+        return cursor;
+    }
+
+    final DBCollection _collection;
+    final DBObject _query;
+    final Listener _listener;
+
+    private int _minSleep = DBApiLayer.TAIL_SLEEP_MIN;
+    private int _maxSleep = DBApiLayer.TAIL_SLEEP_MAX;
+    private boolean _awaitData = true;
+
+    private Thread _thread;
+    private volatile boolean _running = false;
+    volatile DBObject _last;
+
+    static final Logger _logger = Logger.getLogger( Bytes.LOGGER.getName() + ".tailer" );
+}
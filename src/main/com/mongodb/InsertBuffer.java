@@ -0,0 +1,290 @@
+// InsertBuffer.java
+
+/**
+ *      Copyright (C) 2010 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.mongodb;
+
+import java.util.*;
+import java.util.logging.*;
+
+/**
+ * Write-behind buffer for inserts into one collection, see {@link DBCollection#getInsertBuffer}.
+ * Documents from any number of threads are collected and sent as multi-document insert messages
+ * by a background thread, once {@link #setMaxBatch maxBatch} are waiting or the oldest has waited
+ * {@link #setMaxDelay maxDelay} ms.  When {@link #setMaxPending maxPending} documents are waiting
+ * or being sent, <code>insert</code> blocks until there is room.
+ *
+ * <p>Errors can't reach the thread that called <code>insert</code>: they're logged and counted,
+ * see {@link #getNumFailed}.  {@link #flush} sends everything on the calling thread and does throw.
+ * Batches are sent one at a time, in order.  Documents still buffered when the JVM exits are lost,
+ * so call {@link #close} (or {@link #flush}) on shutdown.</p>
+ * @dochub insert
+ */
+public class InsertBuffer {
+
+    /**
+     * @param collection where the documents go
+     */
+    public InsertBuffer( DBCollection collection ){
+        _collection = collection;
+    }
+
+    /**
+     * Number of waiting documents that triggers a write.  Defaults to 500.
+     * @return this
+     */
+    public InsertBuffer setMaxBatch( int docs ){
+        if ( docs <= 0 )
+            throw new IllegalArgumentException( "maxBatch has to be > 0" );
+        synchronized ( this ){
+            _maxBatch = docs;
+            notifyAll();
+        }
+        return this;
+    }
+
+    /**
+     * The longest a document waits before being sent.  Defaults to 50 ms.
+     * @return this
+     */
+    public InsertBuffer setMaxDelay( long millis ){
+        if ( millis <= 0 )
+            throw new IllegalArgumentException( "maxDelay has to be > 0" );
+        synchronized ( this ){
+            _maxDelay = millis;
+            notifyAll();
+        }
+        return this;
+    }
+
+    /**
+     * Number of waiting and in flight documents at which <code>insert</code> blocks.  Defaults to 10000.
+     * @return this
+     */
+    public InsertBuffer setMaxPending( int docs ){
+        if ( docs <= 0 )
+            throw new IllegalArgumentException( "maxPending has to be > 0" );
+        synchronized ( this ){
+            _maxPending = docs;
+            notifyAll();
+        }
+        return this;
+    }
+
+    /**
+     * Write concern the batches are sent with.  Defaults to the collection's.
+     * @return this
+     */
+    public InsertBuffer setWriteConcern( WriteConcern concern ){
+        _concern = concern;
+        return this;
+    }
+
+    /**
+     * Queues documents for insertion.  As with {@link DBCollection#insert} an _id is added
+     * right away to documents that don't have one.
+     * @throws IllegalStateException if closed
+     * @throws MongoException if interrupted while waiting for room
+     */
+    public void insert( DBObject ... docs ){
+        for ( DBObject o : docs )
+            _collection.apply( o );
+
+        synchronized ( this ){
+            for ( DBObject o : docs ){
+                if ( _closed )
+                    throw new IllegalStateException( "insert buffer for " + _collection.getFullName() + " is closed" );
+
+                while ( _pending.size() + _inFlight >= _maxPending ){
+                    try {
+                        wait();
+                    }
+                    catch ( InterruptedException ie ){
+                        Thread.currentThread().interrupt();
+                        throw new MongoException( "interrupted waiting for room in insert buffer" , ie );
+                    }
+                    if ( _closed )
+                        throw new IllegalStateException( "insert buffer for " + _collection.getFullName() + " is closed" );
+                }
+
+                if ( _pending.size() == 0 )
+                    _firstAt = System.currentTimeMillis();
+                _pending.add( o );
+
+                // the first one starts the clock, a full batch goes now
+                if ( _pending.size() == 1 || _pending.size() >= _maxBatch )
+                    notifyAll();
+            }
+
+            if ( _thread == null ){
+                _thread = new Flusher();
+                _thread.start();
+            }
+        }
+    }
+
+    /**
+     * Sends everything buffered so far, on the calling thread.
+     * When this returns everything inserted before the call has been sent.
+     * @throws MongoException if the write fails, the documents of the failed batch are dropped
+     */
+    public void flush()
+        throws MongoException {
+        _flushOnce( false );
+    }
+
+    /**
+     * Flushes, then stops the background thread.  Later inserts throw.
+     * {@link DBCollection#getInsertBuffer} hands out a new buffer after this.
+     */
+    public void close()
+        throws MongoException {
+        synchronized ( this ){
+            _closed = true;
+            notifyAll();
+        }
+        _flushOnce( false );
+    }
+
+    /**
+     * @return true once {@link #close} was called
+     */
+    public synchronized boolean isClosed(){
+        return _closed;
+    }
+
+    /**
+     * @return number of documents waiting to be sent
+     */
+    public synchronized int size(){
+        return _pending.size();
+    }
+
+    /**
+     * @return number of documents in batches the background thread failed to send.
+     *         Failures of {@link #flush} and {@link #close} aren't counted, they're thrown.
+     */
+    public long getNumFailed(){
+        return _numFailed;
+    }
+
+    /**
+     * @return number of batches sent
+     */
+    public long getNumBatches(){
+        return _numBatches;
+    }
+
+    /**
+     * @param background true on the background thread, whose failures are counted as nobody else hears of them
+     */
+    private void _flushOnce( boolean background )
+        throws MongoException {
+        // batches are taken and written under the same lock so they go out in order
+        synchronized ( _writeLock ){
+            DBObject[] batch;
+            synchronized ( this ){
+                if ( _pending.size() == 0 )
+                    return;
+                batch = _pending.toArray( new DBObject[ _pending.size() ] );
+                _pending.clear();
+                _inFlight += batch.length;
+            }
+
+            try {
+                _collection.insert( batch , _concern == null ? _collection.getWriteConcern() : _concern );
+                _numBatches++;
+            }
+            catch ( RuntimeException e ){
+                if ( background )
+                    _numFailed += batch.length;
+                throw e;
+            }
+            finally {
+                synchronized ( this ){
+                    _inFlight -= batch.length;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if there's something to send now, false if closed and empty
+     */
+    private synchronized boolean _waitForBatch()
+        throws InterruptedException {
+        while ( true ){
+            if ( _pending.size() == 0 ){
+                if ( _closed )
+                    return false;
+                wait();
+                continue;
+            }
+
+            if ( _closed || _pending.size() >= _maxBatch )
+                return true;
+
+            long left = _firstAt + _maxDelay - System.currentTimeMillis();
+            if ( left <= 0 )
+                return true;
+            wait( left );
+        }
+    }
+
+    class Flusher extends Thread {
+        Flusher(){
+            super( "InsertBuffer - " + _collection.getFullName() );
+            setDaemon( true );
+        }
+
+        public void run(){
+            while ( true ){
+                try {
+                    if ( ! _waitForBatch() )
+                        return;
+                    _flushOnce( true );
+                }
+                catch ( InterruptedException ie ){
+                    return;
+                }
+                catch ( Throwable t ){
+                    _logger.log( Level.WARNING , "write behind insert into " + _collection.getFullName() + " failed" , t );
+                }
+            }
+        }
+    }
+
+    final DBCollection _collection;
+    private final Object _writeLock = new Object();
+
+    private int _maxBatch = 500;
+    private long _maxDelay = 50;
+    private int _maxPending = 10000;
+    private WriteConcern _concern;
+
+    private final List<DBObject> _pending = new ArrayList<DBObject>();
+    private long _firstAt;
+    private int _inFlight = 0;
+    private boolean _closed = false;
+    private Thread _thread;
+
+    private volatile long _numFailed = 0;
+    private volatile long _numBatches = 0;
+
+    static final Logger _logger = Logger.getLogger( Bytes.LOGGER.getName() + ".insertbuffer" );
+}
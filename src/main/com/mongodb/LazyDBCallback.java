@@ -0,0 +1,55 @@
+// LazyDBCallback.java
+
+/**
+ *      Copyright (C) 2010 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.mongodb;
+
+import java.io.*;
+
+import org.bson.*;
+import org.bson.io.*;
+
+/**
+ * Reads documents as {@link LazyDBObject}s: each document's bytes are copied off the wire
+ * and nothing is decoded until a field is read.
+ */
+public class LazyDBCallback extends DBCallback {
+
+    public static final DBCallback.Factory LAZY_FACTORY = new DBCallback.Factory(){
+            public DBCallback create( DBCollection collection ){
+                return new LazyDBCallback( collection );
+            }
+        };
+
+    public LazyDBCallback( DBCollection coll ){
+        super( coll );
+    }
+
+    DBObject read( BSONDecoder decoder , InputStream in )
+        throws IOException {
+        byte[] len = new byte[4];
+        Bits.readFully( in , len );
+        int size = Bits.readInt( len );
+        if ( size < 5 )
+            throw new IOException( "bad object size: " + size );
+
+        byte[] data = new byte[size];
+        System.arraycopy( len , 0 , data , 0 , 4 );
+        Bits.readFully( in , data , 4 , size - 4 );
+        return new LazyDBObject( data , 0 , _collection );
+    }
+}
@@ -0,0 +1,82 @@
+// LazyDBObject.java
+
+/**
+ *      Copyright (C) 2010 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.mongodb;
+
+import org.bson.*;
+
+/**
+ * A <code>DBObject</code> that keeps the document's bytes as read off the wire and only
+ * decodes the fields that are used, see {@link LazyBSONObject}.  Saving it unchanged copies the bytes.
+ * Get them by setting {@link LazyDBCallback#LAZY_FACTORY} on a collection or cursor:
+ * <blockquote><pre>
+ * DBCursor c = coll.find( q ).setDBCallbackFactory( LazyDBCallback.LAZY_FACTORY );
+ * </pre></blockquote>
+ * The collection's object class isn't used; a changed object becomes a {@link BasicDBObject} inside.
+ */
+public class LazyDBObject extends LazyBSONObject implements DBObject {
+
+    public LazyDBObject( byte[] data ){
+        this( data , 0 , null );
+    }
+
+    /**
+     * @param collection where it came from, for resolving refs
+     */
+    public LazyDBObject( byte[] data , DBCollection collection ){
+        this( data , 0 , collection );
+    }
+
+    LazyDBObject( byte[] data , int offset , DBCollection collection ){
+        super( data , offset );
+        _collection = collection;
+    }
+
+    public void markAsPartialObject(){
+        _partial = true;
+    }
+
+    public boolean isPartialObject(){
+        return _partial;
+    }
+
+    protected BSONObject _newObject(){
+        return new BasicDBObject();
+    }
+
+    protected BSONCallback _newCallback(){
+        return new DBCallback( _collection );
+    }
+
+    protected LazyBSONObject _newEmbedded( int offset ){
+        return new LazyDBObject( _data() , offset , _collection );
+    }
+
+    protected Object _decode( int i ){
+        Object o = super._decode( i );
+        if ( o instanceof LazyDBObject ){
+            LazyDBObject e = (LazyDBObject)o;
+            if ( e.containsField( "$ref" ) && e.containsField( "$id" ) )
+                return new DBRef( _collection == null ? null : _collection.getDB() , e );
+        }
+        return o;
+    }
+
+    final DBCollection _collection;
+    private boolean _partial = false;
+}
@@ -22,9 +22,12 @@ import java.net.*;
 import java.util.*;
 import java.util.Map.Entry;
 import java.util.concurrent.*;
+import java.util.logging.*;
 
 import org.bson.io.*;
 
+import com.mongodb.util.*;
+
 /**
  * A database connection with internal pooling.
  * For most application, you should have 1 Mongo instance for the entire JVM.
@@ -389,6 +392,24 @@ public class Mongo {
         return _netOptions.get();
     }
 
+    /**
+     * threads for writes split over several connections, like {@link DBCollection#insertParallel}.
+     * each thread has its own connection, so at most connectionsPerHost of them
+     */
+    synchronized ThreadPool<Runnable> _writers(){
+        if ( _writers == null ){
+            _writers = new ThreadPool<Runnable>( "Mongo writers" , Math.max( 1 , _options.connectionsPerHost ) ){
+                    public void handle( Runnable r ){
+                        r.run();
+                    }
+                    public void handleError( Runnable r , Exception e ){
+                        Bytes.LOGGER.log( Level.WARNING , "parallel write failed" , e );
+                    }
+                };
+        }
+        return _writers;
+    }
+
     
     final ServerAddress _addr;
     final List<ServerAddress> _addrs;
@@ -396,6 +417,7 @@ public class Mongo {
     final DBTCPConnector _connector;
     final ConcurrentMap<String,DB> _dbs = new ConcurrentHashMap<String,DB>();
     private WriteConcern _concern = WriteConcern.NORMAL;
+    private ThreadPool<Runnable> _writers;
     final Bytes.OptionHolder _netOptions = new Bytes.OptionHolder( null );
     
     org.bson.util.SimplePool<PoolOutputBuffer> _bufferPool = 
@@ -18,6 +18,8 @@
 
 package com.mongodb;
 
+import java.util.*;
+
 import org.bson.*;
 
 public class MongoException extends RuntimeException {
@@ -87,6 +89,58 @@ public class MongoException extends RuntimeException {
         }
     }
 
+    /**
+     * Thrown by {@link DBCollection#insertParallel} when some batches failed.
+     * The batches that didn't fail were inserted.
+     */
+    public static class BulkInsert extends MongoException {
+        BulkInsert( SortedMap<Integer,MongoException> errors , Map<Integer,Integer> ends , int total ){
+            super( -6 , errors.size() + " insert batches failed, first: " + errors.get( errors.firstKey() ).getMessage() , errors.get( errors.firstKey() ) );
+            _errors = Collections.unmodifiableSortedMap( errors );
+            _ends = ends;
+            _total = total;
+        }
+
+        /**
+         * @return the error of each failed batch, keyed by the index of the batch's first document
+         */
+        public SortedMap<Integer,MongoException> getErrors(){
+            return _errors;
+        }
+
+        /**
+         * @param start index of the first document of a failed batch, a key of {@link #getErrors}
+         * @return index after the last document of that batch
+         */
+        public int getBatchEnd( int start ){
+            Integer end = _ends.get( start );
+            if ( end == null )
+                throw new IllegalArgumentException( "no failed batch starts at " + start );
+            return end;
+        }
+
+        /**
+         * @return number of documents in the failed batches
+         */
+        public int getNumInFailedBatches(){
+            int n = 0;
+            for ( Integer start : _errors.keySet() )
+                n += getBatchEnd( start ) - start;
+            return n;
+        }
+
+        /**
+         * @return number of documents that were asked to be inserted
+         */
+        public int getTotal(){
+            return _total;
+        }
+
+        final SortedMap<Integer,MongoException> _errors;
+        final Map<Integer,Integer> _ends;
+        final int _total;
+    }
+
     public int getCode(){
         return _code;
     }
@@ -0,0 +1,171 @@
+// OplogReader.java
+
+/**
+ *      Copyright (C) 2010 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.mongodb;
+
+import java.util.*;
+import java.util.logging.*;
+
+import org.bson.types.*;
+
+/**
+ * Reads a server's oplog from a checkpoint onwards and hands the entries to a {@link Listener}
+ * in batches, on its own thread.
+ * <blockquote><pre>
+ * OplogReader r = new OplogReader( mongo , savedTimestamp , new OplogReader.Listener(){
+ *         public void gotEntries( List&lt;DBObject&gt; entries ){
+ *             apply( entries );
+ *         }
+ *     } );
+ * r.start();
+ * ...
+ * save( r.getCheckpoint() );
+ * </pre></blockquote>
+ *
+ * <p>The checkpoint is the <code>ts</code> of the last entry of the last batch the listener
+ * returned from without throwing.  Whenever the cursor dies - network error, replica set failover,
+ * a listener error - the reader re-queries from the checkpoint, so nothing is skipped and
+ * at most the failed batch is seen twice.</p>
+ *
+ * <p>If the checkpoint has already been overwritten in the (capped) oplog, entries were lost
+ * and resuming would silently skip them, so the reader stops instead.  Check {@link #isRunning}.</p>
+ * @dochub replication
+ */
+public class OplogReader extends DBTailer {
+
+    /** the replica set oplog */
+    public static final String OPLOG_RS = "oplog.rs";
+    /** the master/slave oplog */
+    public static final String OPLOG_MAIN = "oplog.$main";
+
+    /**
+     * Receives oplog entries from an {@link OplogReader}.
+     */
+    public static interface Listener {
+        /**
+         * @param entries oplog entries in order, never empty.
+         *                if this throws the same entries will be delivered again.
+         */
+        public void gotEntries( List<DBObject> entries ) throws Exception;
+    }
+
+    /**
+     * Reads the replica set oplog (<code>local.oplog.rs</code>).
+     * @param mongo connection
+     * @param start the checkpoint to resume after, or null to start at the end of the oplog
+     * @param listener gets the entries
+     */
+    public OplogReader( Mongo mongo , BSONTimestamp start , Listener listener ){
+        this( mongo.getDB( "local" ).getCollection( OPLOG_RS ) , start , listener );
+    }
+
+    /**
+     * @param oplog the oplog collection, see {@link #OPLOG_RS} and {@link #OPLOG_MAIN}
+     * @param start the checkpoint to resume after, or null to start at the end of the oplog
+     * @param listener gets the entries
+     */
+    public OplogReader( DBCollection oplog , BSONTimestamp start , Listener listener ){
+        super( oplog , null , null , false );
+        if ( listener == null )
+            throw new IllegalArgumentException( "need a listener" );
+        _oplogListener = listener;
+        _checkpoint = start;
+    }
+
+    /**
+     * The most entries handed to the listener in one call.  Defaults to 1000.
+     * A batch is also handed over as soon as the reader would have to wait on the server.
+     * @return this
+     */
+    public OplogReader setMaxBatchSize( int max ){
+        if ( max <= 0 )
+            throw new IllegalArgumentException( "max batch size has to be > 0" );
+        _maxBatchSize = max;
+        return this;
+    }
+
+    /**
+     * @return the <code>ts</code> of the last entry the listener accepted, or the starting point
+     */
+    public BSONTimestamp getCheckpoint(){
+        return _checkpoint;
+    }
+
+    protected DBCursor createCursor( DBObject last ){
+        if ( _checkpoint == null ){
+            DBCursor c = _collection.find().sort( new BasicDBObject( "$natural" , -1 ) ).limit( 1 );
+            if ( ! c.hasNext() )
+                throw new MongoException( "no oplog entries in " + _collection.getFullName() );
+            _checkpoint = (BSONTimestamp)c.next().get( "ts" );
+        }
+
+        // ask for the checkpoint itself too, to check that it is still there
+        DBCursor c = _collection.find( new BasicDBObject( "ts" , new BasicDBObject( "$gte" , _checkpoint ) ) );
+        c.addOption( Bytes.QUERYOPTION_OPLOGREPLAY );
+        return tailable( c );
+    }
+
+    void consume( DBCursor cursor )
+        throws Exception {
+
+        _batch.clear();
+
+        if ( ! cursor.hasNext() )
+            return;
+
+        DBObject first = cursor.next();
+        if ( ! _checkpoint.equals( first.get( "ts" ) ) ){
+            if ( _checkpoint.getTime() != 0 ){
+                _logger.log( Level.SEVERE , "oplog " + _collection.getFullName() + " has rolled over past " + _checkpoint +
+                             ", first entry is " + first.get( "ts" ) + ". stopping." );
+                stop();
+                return;
+            }
+            // starting from the beginning of time
+            _batch.add( first );
+        }
+
+        while ( isRunning() && cursor.hasNext() ){
+            _batch.add( cursor.next() );
+            if ( _batch.size() >= _maxBatchSize || ! cursor.hasBufferedNext() )
+                _flush();
+        }
+        _flush();
+    }
+
+    private void _flush()
+        throws Exception {
+        if ( _batch.size() == 0 || ! isRunning() )
+            return;
+
+        // if this throws the checkpoint stays put and the next cursor starts from it
+        List<DBObject> batch = _batch;
+        _batch = new ArrayList<DBObject>();
+        _oplogListener.gotEntries( batch );
+
+        DBObject lastEntry = batch.get( batch.size() - 1 );
+        _checkpoint = (BSONTimestamp)lastEntry.get( "ts" );
+        _last = lastEntry;
+    }
+
+    final Listener _oplogListener;
+
+    private int _maxBatchSize = 1000;
+    private volatile BSONTimestamp _checkpoint;
+    private List<DBObject> _batch = new ArrayList<DBObject>();
+}
@@ -79,7 +79,8 @@ class OutMessage extends BSONEncoder {
     }
 
     void prepare(){
-        _buffer.writeInt( 0 , _buffer.size() );
+        // with a getlasterror appended the buffer holds two messages, only the first length goes here
+        _buffer.writeInt( 0 , _appendedAt > 0 ? _appendedAt : _buffer.size() );
     }
     
     protected boolean handleSpecialObjects( String name , BSONObject o ){
@@ -98,10 +99,42 @@ class OutMessage extends BSONEncoder {
             putDBPointer( name , r._ns , (ObjectId)r._id );
             return true;
         }
+
+        if ( o instanceof ReflectionDBObject ){
+            _putReflectionObject( name , (ReflectionDBObject)o );
+            return true;
+        }
         
         return false;
     }
 
+    /**
+     * writes the fields straight from the wrapper's getters, in the order putObject would
+     */
+    private void _putReflectionObject( String name , ReflectionDBObject o ){
+        ReflectionDBObject.JavaWrapper w = o.getWrapper();
+
+        if ( name != null )
+            _put( OBJECT , name );
+
+        final int sizePos = _buf.getPosition();
+        _buf.writeInt( 0 );
+
+        // like BSONEncoder.putObject, _id goes first at the top level
+        final boolean rewriteID = name == null && w.containsKey( "_id" );
+        if ( rewriteID )
+            _putObjectField( "_id" , w.get( o , "_id" ) );
+
+        for ( ReflectionDBObject.FieldInfo fi : w.fields() ){
+            if ( rewriteID && fi._name.equals( "_id" ) )
+                continue;
+            _putObjectField( fi._name , w.get( o , fi ) );
+        }
+
+        _buf.write( EOO );
+        _buf.writeInt( sizePos , _buf.getPosition() - sizePos );
+    }
+
     protected boolean putSpecial( String name , Object val ){
         if ( val instanceof DBPointer ){
             DBPointer r = (DBPointer)val;
@@ -138,11 +171,18 @@ class OutMessage extends BSONEncoder {
         _buf.writeInt( sizePos , _buf.getPosition() - sizePos );
     }
 
+    /**
+     * adds a getlasterror query for <code>c</code> after the message, in the same buffer,
+     * so the write and its check go out in one socket write
+     */
     void append( String db , WriteConcern c ){
+        if ( _appendedAt > 0 )
+            throw new IllegalStateException( "already appended a getlasterror" );
 
         _id = ID.getAndIncrement();
 
         int loc = size();
+        _appendedAt = loc;
 
         writeInt( 0 ); // will set this later
         writeInt( _id );
@@ -177,9 +217,15 @@ class OutMessage extends BSONEncoder {
         return ( _queryOptions & option ) != 0;
     }
 
+    /**
+     * what the response documents get decoded with, null for the collection's
+     */
+    DBCallback.Factory _callbackFactory;
+
     private Mongo _mongo;
     private PoolOutputBuffer _buffer;
     private int _id;
     private int _queryOptions = 0;
+    private int _appendedAt = 0;
 
 }
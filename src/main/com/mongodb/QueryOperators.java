@@ -36,4 +36,5 @@ public class QueryOperators {
 	public static final String EXISTS = "$exists";
 	public static final String WHERE = "$where";
 	public static final String NEAR = "$near";
+	public static final String OR = "$or";
 }
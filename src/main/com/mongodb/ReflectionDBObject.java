@@ -137,6 +137,12 @@ public abstract class ReflectionDBObject implements DBObject {
                     _fields.remove( name );
             
             _keys = Collections.unmodifiableSet( _fields.keySet() );
+
+            // lookups by name are hashed, and encoding walks a plain array rather than keySet() and get()
+            _byName = new HashMap<String,FieldInfo>( _fields );
+            _ordered = _fields.values().toArray( new FieldInfo[ _fields.size() ] );
+            for ( FieldInfo fi : _ordered )
+                fi.prepare();
         }
 
         public Set<String> keySet(){
@@ -148,21 +154,28 @@ public abstract class ReflectionDBObject implements DBObject {
         }
 
         public Object get( ReflectionDBObject t , String name ){
-            FieldInfo i = _fields.get( name );
+            FieldInfo i = _byName.get( name );
             if ( i == null )
                 return null;
+            return get( t , i );
+        }
+
+        Object get( ReflectionDBObject t , FieldInfo i ){
             try {
                 return i._getter.invoke( t );
             }
             catch ( Exception e ){
-                throw new RuntimeException( "could not invoke getter for [" + name + "] on [" + _name + "]" , e );
+                throw new RuntimeException( "could not invoke getter for [" + i._name + "] on [" + _name + "]" , e );
             }
         }
 
         public Object set( ReflectionDBObject t , String name , Object val ){
-            FieldInfo i = _fields.get( name );
+            FieldInfo i = _byName.get( name );
             if ( i == null )
                 throw new IllegalArgumentException( "no field [" + name + "] on [" + _name + "]" );
+            val = i.coerce( val );
+            if ( val == null && i._class.isPrimitive() )
+                return null;
             try {
                 return i._setter.invoke( t , val );
             }
@@ -171,6 +184,13 @@ public abstract class ReflectionDBObject implements DBObject {
             }
         }
 
+        /**
+         * @return the fields, in key order
+         */
+        FieldInfo[] fields(){
+            return _ordered;
+        }
+
         Class getInternalClass( String path ){
             String cur = path;
             String next = null;
@@ -197,6 +217,8 @@ public abstract class ReflectionDBObject implements DBObject {
         final String _name;
         final Map<String,FieldInfo> _fields;
         final Set<String> _keys;
+        final Map<String,FieldInfo> _byName;
+        final FieldInfo[] _ordered;
     }
     
     static class FieldInfo {
@@ -210,6 +232,41 @@ public abstract class ReflectionDBObject implements DBObject {
                 _getter != null &&
                 _setter != null;
         }
+
+        /**
+         * skips the access checks on each call where the security manager lets us
+         */
+        void prepare(){
+            try {
+                _getter.setAccessible( true );
+                _setter.setAccessible( true );
+            }
+            catch ( SecurityException se ){
+                // still works, just slower
+            }
+        }
+
+        /**
+         * numbers come back as whatever type they were stored as, convert to the setter's
+         */
+        Object coerce( Object val ){
+            if ( ! ( val instanceof Number ) || _class.isInstance( val ) )
+                return val;
+            Number n = (Number)val;
+            if ( _class == Integer.TYPE || _class == Integer.class )
+                return n.intValue();
+            if ( _class == Long.TYPE || _class == Long.class )
+                return n.longValue();
+            if ( _class == Double.TYPE || _class == Double.class )
+                return n.doubleValue();
+            if ( _class == Float.TYPE || _class == Float.class )
+                return n.floatValue();
+            if ( _class == Short.TYPE || _class == Short.class )
+                return n.shortValue();
+            if ( _class == Byte.TYPE || _class == Byte.class )
+                return n.byteValue();
+            return val;
+        }
         
         final String _name;
         final Class _class;
@@ -28,6 +28,14 @@ class Response {
     
     Response( ServerAddress addr , DBCollection collection ,  InputStream in, BSONDecoder decoder)
         throws IOException {
+        this( addr , collection , in , decoder , null );
+    }
+
+    /**
+     * @param factory makes the callback documents are decoded with, null for the collection's
+     */
+    Response( ServerAddress addr , DBCollection collection ,  InputStream in, BSONDecoder decoder , DBCallback.Factory factory )
+        throws IOException {
 
         _host = addr;
         
@@ -54,14 +62,14 @@ class Response {
         else
             _objects = new ArrayList<DBObject>( _num );
 
-        DBCallback c = DBCallback.FACTORY.create( collection );        
+        if ( factory == null )
+            factory = collection == null ? DBCallback.FACTORY : collection.getDBCallbackFactory();
+        DBCallback c = factory.create( collection );
         
         for ( int i=0; i<_num; i++ ){
             if ( user._toGo < 5 )
                 throw new IOException( "should have more obejcts, but only " + user._toGo + " bytes left" );
-            c.reset();
-            decoder.decode( user , c );
-            _objects.add( c.dbget() );
+            _objects.add( c.read( decoder , user ) );
         }
 
         if ( user._toGo != 0 )
@@ -94,17 +102,17 @@ class Response {
             return false;
             
         // have a tailable cursor
-
-        if ( ( _flags & Bytes.RESULTFLAG_AWAITCAPABLE ) > 0 && ( queryOptions & Bytes.QUERYOPTION_AWAITDATA ) > 0 )
-            return true;
-        
-        try {
-            Thread.sleep( 500 );
-        }
-        catch ( Exception e ){}
-        
+        // the caller is responsible for backing off when the server won't block for us
+        // see awaitsData()
         return true;
     }
+
+    /**
+     * @return true if the server will block a getmore on this tailable cursor until data arrives
+     */
+    public boolean awaitsData( int queryOptions ){
+        return ( _flags & Bytes.RESULTFLAG_AWAITCAPABLE ) > 0 && ( queryOptions & Bytes.QUERYOPTION_AWAITDATA ) > 0;
+    }
     
     public long cursor(){
         return _cursor;
@@ -0,0 +1,120 @@
+// SampleCursor.java
+
+/**
+ *      Copyright (C) 2010 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.mongodb;
+
+import java.util.*;
+
+/**
+ * Reads back samples written by {@link BucketWriter}, in time order, as
+ * <code>{ series : ... , t : Date , v : ... }</code>.  Buckets overlapping the range are fetched
+ * through a {@link DBCursor} and unrolled one at a time, so only one bucket's samples are in memory.
+ * <blockquote><pre>
+ * for ( DBObject s : new SampleCursor( buckets , "cpu.host1" , from , to ) )
+ *     plot( (Date)s.get( "t" ) , s.get( "v" ) );
+ * </pre></blockquote>
+ */
+public class SampleCursor implements Iterator<DBObject> , Iterable<DBObject> {
+
+    /**
+     * @param buckets the collection the {@link BucketWriter} writes to
+     * @param series the series key
+     * @param from first time included
+     * @param to first time not included
+     */
+    public SampleCursor( DBCollection buckets , Object series , Date from , Date to ){
+        _series = series;
+        _from = from.getTime();
+        _to = to.getTime();
+
+        BasicDBObject q = new BasicDBObject( "series" , series );
+        q.put( "start" , new BasicDBObject( QueryOperators.LT , to ) );
+        q.put( "end" , new BasicDBObject( QueryOperators.GT , from ) );
+        _cursor = buckets.find( q ).sort( new BasicDBObject( "series" , 1 ).append( "start" , 1 ) );
+    }
+
+    public boolean hasNext(){
+        while ( _samples == null || _pos >= _samples.size() ){
+            if ( ! _cursor.hasNext() ){
+                _cursor.close();
+                return false;
+            }
+            _unroll( _cursor.next() );
+        }
+        return true;
+    }
+
+    public DBObject next(){
+        if ( ! hasNext() )
+            throw new NoSuchElementException();
+        DBObject s = _samples.get( _pos++ );
+        return new BasicDBObject( "series" , _series ).append( "t" , s.get( "t" ) ).append( "v" , s.get( "v" ) );
+    }
+
+    public void remove(){
+        throw new UnsupportedOperationException( "can't remove a sample" );
+    }
+
+    public Iterator<DBObject> iterator(){
+        return this;
+    }
+
+    /**
+     * Stops reading, only needed when not iterating to the end.
+     */
+    public void close(){
+        _cursor.close();
+    }
+
+    /**
+     * the bucket's samples in range, in time order (they're stored in arrival order)
+     */
+    private void _unroll( DBObject bucket ){
+        List<DBObject> l = new ArrayList<DBObject>();
+        Object samples = bucket.get( "samples" );
+        if ( samples instanceof List ){
+            for ( Object o : (List)samples ){
+                if ( ! ( o instanceof DBObject ) )
+                    continue;
+                Object t = ((DBObject)o).get( "t" );
+                if ( ! ( t instanceof Date ) )
+                    continue;
+                long time = ((Date)t).getTime();
+                if ( time >= _from && time < _to )
+                    l.add( (DBObject)o );
+            }
+        }
+        Collections.sort( l , TIME_ORDER );
+        _samples = l;
+        _pos = 0;
+    }
+
+    static final Comparator<DBObject> TIME_ORDER = new Comparator<DBObject>(){
+        public int compare( DBObject a , DBObject b ){
+            return ((Date)a.get( "t" )).compareTo( (Date)b.get( "t" ) );
+        }
+    };
+
+    final Object _series;
+    final long _from;
+    final long _to;
+    final DBCursor _cursor;
+
+    private List<DBObject> _samples;
+    private int _pos;
+}
@@ -0,0 +1,197 @@
+// Sequence.java
+
+/**
+ *      Copyright (C) 2010 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.mongodb;
+
+import java.util.concurrent.atomic.*;
+import java.util.logging.*;
+
+/**
+ * Numeric id generator backed by a counter document.  Instead of a <code>findAndModify</code>
+ * per id, a block of ids is reserved with one <code>$inc</code> and handed out locally without locking.
+ * When only {@link #setLowWater lowWater} ids are left in the block, the next block is fetched in the background.
+ * <blockquote><pre>
+ * Sequence orderIds = new Sequence( db.getCollection( "counters" ) , "orders" );
+ * long id = orderIds.next();
+ * </pre></blockquote>
+ *
+ * <p>The counter document is <code>{ _id : name , seq : n }</code> where <code>n</code> is the highest id
+ * reserved so far, which is what a plain <code>$inc : { seq : 1 }</code> with <code>new : true</code> leaves,
+ * so both can be used on the same counter.  Ids are unique across processes and increase within one,
+ * but aren't in order across processes, and the unused part of a block is skipped when the process exits.</p>
+ */
+public class Sequence {
+
+    /**
+     * @param counters collection holding the counter documents
+     * @param name _id of this sequence's counter document
+     */
+    public Sequence( DBCollection counters , String name ){
+        this( counters , name , "seq" );
+    }
+
+    /**
+     * @param counters collection holding the counter documents
+     * @param name _id of this sequence's counter document
+     * @param field field of the counter document holding the highest reserved id
+     */
+    public Sequence( DBCollection counters , String name , String field ){
+        _counters = counters;
+        _name = name;
+        _field = field;
+    }
+
+    /**
+     * Number of ids reserved per round trip.  Defaults to 100.
+     * @return this
+     */
+    public Sequence setBlockSize( int size ){
+        if ( size <= 0 )
+            throw new IllegalArgumentException( "block size has to be > 0" );
+        _blockSize = size;
+        return this;
+    }
+
+    /**
+     * Number of ids left in the current block at which the next block is fetched in the background.
+     * 0 turns prefetching off.  Defaults to 25.
+     * @return this
+     */
+    public Sequence setLowWater( int left ){
+        if ( left < 0 )
+            throw new IllegalArgumentException( "low water can't be < 0" );
+        _lowWater = left;
+        return this;
+    }
+
+    /**
+     * @return the next id
+     * @throws MongoException if a block had to be fetched and that failed
+     */
+    public long next()
+        throws MongoException {
+        while ( true ){
+            Block b = _current;
+            long v = b._next.getAndIncrement();
+            if ( v <= b._last ){
+                if ( b._last - v < _lowWater && b._prefetch.compareAndSet( false , true ) )
+                    _prefetch();
+                return v;
+            }
+            _advance( b );
+        }
+    }
+
+    public String getName(){
+        return _name;
+    }
+
+    /**
+     * replaces the exhausted block <code>b</code>, by the prefetched one if there is one
+     */
+    private synchronized void _advance( Block b )
+        throws MongoException {
+        if ( _current != b )
+            return;
+
+        while ( _fetching ){
+            try {
+                wait();
+            }
+            catch ( InterruptedException ie ){
+                Thread.currentThread().interrupt();
+                throw new MongoException( "interrupted waiting for sequence block" , ie );
+            }
+        }
+
+        if ( _prefetched != null ){
+            _current = _prefetched;
+            _prefetched = null;
+            return;
+        }
+
+        _current = _fetch();
+    }
+
+    private void _prefetch(){
+        synchronized ( this ){
+            if ( _fetching || _prefetched != null )
+                return;
+            _fetching = true;
+        }
+
+        boolean queued = _counters._db._mongo._writers().offer( new Runnable(){
+                public void run(){
+                    Block b = null;
+                    try {
+                        b = _fetch();
+                    }
+                    catch ( RuntimeException e ){
+                        _logger.log( Level.WARNING , "prefetching block for sequence " + _name + " failed" , e );
+                    }
+                    _prefetched( b );
+                }
+            } );
+
+        if ( ! queued )
+            _prefetched( null );
+    }
+
+    private synchronized void _prefetched( Block b ){
+        _prefetched = b;
+        _fetching = false;
+        notifyAll();
+    }
+
+    private Block _fetch()
+        throws MongoException {
+        int size = _blockSize;
+        DBObject res = _counters.findAndModify( new BasicDBObject( "_id" , _name ) , null , null , false ,
+                                                new BasicDBObject( "$inc" , new BasicDBObject( _field , size ) ) ,
+                                                true , true );
+        if ( res == null || ! ( res.get( _field ) instanceof Number ) )
+            throw new MongoException( "bad counter document for sequence " + _name + " : " + res );
+
+        long last = ((Number)res.get( _field )).longValue();
+        return new Block( last - size + 1 , last );
+    }
+
+    static class Block {
+        Block( long first , long last ){
+            _next = new AtomicLong( first );
+            _last = last;
+        }
+
+        final AtomicLong _next;
+        final long _last;
+        final AtomicBoolean _prefetch = new AtomicBoolean( false );
+    }
+
+    final DBCollection _counters;
+    final String _name;
+    final String _field;
+
+    private volatile int _blockSize = 100;
+    private volatile int _lowWater = 25;
+
+    private volatile Block _current = new Block( 1 , 0 );
+    private Block _prefetched;
+    private boolean _fetching = false;
+
+    static final Logger _logger = Logger.getLogger( Bytes.LOGGER.getName() + ".sequence" );
+}
@@ -0,0 +1,185 @@
+// SpillList.java
+
+/**
+ *      Copyright (C) 2010 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.mongodb;
+
+import java.io.*;
+import java.util.*;
+
+import org.bson.*;
+import org.bson.io.*;
+
+/**
+ * Backs {@link DBCursor#toArray} when the cursor has a memory limit.
+ * The first <code>maxInMemory</code> documents are kept as objects, the rest are written
+ * as BSON to a temp file and decoded again on every <code>get</code>.
+ * Read only from the outside, documents are added by the cursor.
+ */
+class SpillList extends AbstractList<DBObject> {
+
+    SpillList( DBCollection collection , int maxInMemory , boolean partial ){
+        _collection = collection;
+        _maxInMemory = maxInMemory;
+        _partial = partial;
+    }
+
+    public DBObject get( int i ){
+        if ( i < 0 || i >= _size )
+            throw new IndexOutOfBoundsException( "index: " + i + " size: " + _size );
+
+        if ( i < _mem.size() )
+            return _mem.get( i );
+
+        if ( _file == null )
+            throw new IllegalStateException( "cursor closed" );
+
+        try {
+            return _read( i - _mem.size() );
+        }
+        catch ( IOException ioe ){
+            throw new MongoInternalException( "couldn't read spilled document " + i + " from " + _file , ioe );
+        }
+    }
+
+    public int size(){
+        return _size;
+    }
+
+    /**
+     * @return how many documents are on disk
+     */
+    int spilled(){
+        return _size - _mem.size();
+    }
+
+    void _add( DBObject o ){
+        if ( _mem.size() < _maxInMemory && _file == null ){
+            _mem.add( o );
+            _size++;
+            return;
+        }
+
+        try {
+            _write( o );
+        }
+        catch ( IOException ioe ){
+            throw new MongoInternalException( "couldn't spill document to disk" , ioe );
+        }
+        _size++;
+    }
+
+    private void _write( DBObject o )
+        throws IOException {
+        if ( _file == null ){
+            _file = File.createTempFile( "mongo-cursor-" , ".bson" );
+            _file.deleteOnExit();
+            _out = new BufferedOutputStream( new FileOutputStream( _file ) );
+            _encoder = new OutMessage( null );
+            _encoder.done(); // only used for its DBRef handling, not its buffer
+            _buf = new PoolOutputBuffer();
+        }
+
+        _buf.reset();
+        _encoder.set( _buf );
+        _encoder.putObject( o );
+        _encoder.done();
+
+        if ( _numOffsets == _offsets.length ){
+            long[] n = new long[ _offsets.length * 2 ];
+            System.arraycopy( _offsets , 0 , n , 0 , _offsets.length );
+            _offsets = n;
+        }
+        _offsets[_numOffsets++] = _written;
+        _written += _buf.pipe( _out );
+        _dirty = true;
+    }
+
+    private DBObject _read( int n )
+        throws IOException {
+        if ( n == _lastIndex )
+            return _last;
+
+        if ( _dirty ){
+            _out.flush();
+            _dirty = false;
+        }
+        if ( _in == null )
+            _in = new RandomAccessFile( _file , "r" );
+
+        long start = _offsets[n];
+        long end = n + 1 < _numOffsets ? _offsets[n+1] : _written;
+        byte[] b = new byte[ (int)( end - start ) ];
+        _in.seek( start );
+        _in.readFully( b );
+
+        DBCallback.Factory f = _collection == null ? DBCallback.FACTORY : _collection.getDBCallbackFactory();
+        DBObject o = f.create( _collection ).read( _decoder , new ByteArrayInputStream( b ) );
+        if ( _partial )
+            o.markAsPartialObject();
+
+        // iterating decodes each one once, but get( i ) twice in a row shouldn't decode twice
+        _lastIndex = n;
+        _last = o;
+        return o;
+    }
+
+    /**
+     * deletes the spill file, spilled documents can't be read after this
+     */
+    void close(){
+        if ( _file == null )
+            return;
+
+        try {
+            _out.close();
+            if ( _in != null )
+                _in.close();
+        }
+        catch ( IOException ioe ){
+            // going away anyway
+        }
+        _file.delete();
+        _file = null;
+        _out = null;
+        _in = null;
+        _last = null;
+        _lastIndex = -1;
+    }
+
+    final DBCollection _collection;
+    final int _maxInMemory;
+    final boolean _partial;
+
+    private final List<DBObject> _mem = new ArrayList<DBObject>();
+    private int _size = 0;
+
+    private File _file;
+    private OutputStream _out;
+    private RandomAccessFile _in;
+    private OutMessage _encoder;
+    private PoolOutputBuffer _buf;
+    private final BSONDecoder _decoder = new BSONDecoder();
+
+    private long[] _offsets = new long[128];
+    private int _numOffsets = 0;
+    private long _written = 0;
+    private boolean _dirty = false;
+
+    private int _lastIndex = -1;
+    private DBObject _last;
+}
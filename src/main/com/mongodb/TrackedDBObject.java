@@ -0,0 +1,163 @@
+// TrackedDBObject.java
+
+/**
+ *      Copyright (C) 2010 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.mongodb;
+
+import java.util.*;
+
+/**
+ * A <code>BasicDBObject</code> that remembers which fields were set or removed since it was
+ * loaded (or last saved), so {@link DBCollection#saveChanges} can send just those as a
+ * <code>$set</code>/<code>$unset</code> update instead of the whole document.
+ * <blockquote><pre>
+ * profiles.setObjectClass( TrackedDBObject.class );
+ * TrackedDBObject p = (TrackedDBObject)profiles.findOne( q );
+ * p.put( "lastLogin" , new Date() );
+ * p.removeField( "resetToken" );
+ * profiles.saveChanges( p );  // { $set : { lastLogin : ... } , $unset : { resetToken : 1 } }
+ * </pre></blockquote>
+ *
+ * <p>Only <code>put</code>, <code>putAll</code>, <code>append</code>, <code>removeField</code>
+ * and <code>clear</code> are seen.  Changing a nested object or list in place isn't, unless the nested object
+ * is itself a <code>TrackedDBObject</code> (see {@link DBCollection#setInternalClass}); otherwise call
+ * {@link #markDirty} for its field or put it again.</p>
+ *
+ * <p>Objects created by the application aren't tracked until {@link #markClean} is called:
+ * saving them sends the whole document.</p>
+ */
+public class TrackedDBObject extends BasicDBObject {
+
+    public TrackedDBObject(){
+    }
+
+    /**
+     * copies <code>o</code>, and starts tracking changes from that state
+     */
+    public TrackedDBObject( DBObject o ){
+        putAll( o );
+        markClean();
+    }
+
+    public Object put( String key , Object val ){
+        if ( _tracking ){
+            _removed.remove( key );
+            _dirty.add( key );
+        }
+        return super.put( key , val );
+    }
+
+    public Object remove( Object key ){
+        if ( _tracking && key != null && containsField( key.toString() ) ){
+            _dirty.remove( key.toString() );
+            _removed.add( key.toString() );
+        }
+        return super.remove( key );
+    }
+
+    public void clear(){
+        if ( _tracking ){
+            _dirty.clear();
+            _removed.addAll( keySet() );
+        }
+        super.clear();
+    }
+
+    /**
+     * Records a field as changed, for when its value was modified in place.
+     */
+    public void markDirty( String key ){
+        if ( _tracking )
+            _dirty.add( key );
+    }
+
+    /**
+     * Forgets all changes and starts tracking from the current state, this and any nested <code>TrackedDBObject</code>s.
+     * Called when loaded from the database and after {@link DBCollection#saveChanges}.
+     */
+    public void markClean(){
+        _dirty.clear();
+        _removed.clear();
+        _tracking = true;
+        for ( String k : keySet() ){
+            Object v = get( k );
+            if ( v instanceof TrackedDBObject )
+                ((TrackedDBObject)v).markClean();
+        }
+    }
+
+    /**
+     * @return true if changes are being tracked, i.e. the object was loaded or {@link #markClean} was called
+     */
+    public boolean isTracking(){
+        return _tracking;
+    }
+
+    /**
+     * @return true if anything changed since loaded, or if not tracking
+     */
+    public boolean isDirty(){
+        if ( ! _tracking )
+            return true;
+        return getChanges() != null;
+    }
+
+    /**
+     * Builds the update for the changes since the object was loaded.
+     * @return <code>{ $set : {...} , $unset : {...} }</code> with only the parts needed, or null if nothing changed
+     * @throws IllegalStateException if not tracking, or if _id changed (that needs a whole save)
+     */
+    public DBObject getChanges(){
+        if ( ! _tracking )
+            throw new IllegalStateException( "not tracking changes" );
+        if ( _dirty.contains( "_id" ) || _removed.contains( "_id" ) )
+            throw new IllegalStateException( "_id changed" );
+
+        BasicDBObject set = new BasicDBObject();
+        BasicDBObject unset = new BasicDBObject();
+        _changes( "" , set , unset );
+
+        if ( set.size() == 0 && unset.size() == 0 )
+            return null;
+
+        BasicDBObject update = new BasicDBObject();
+        if ( set.size() > 0 )
+            update.put( "$set" , set );
+        if ( unset.size() > 0 )
+            update.put( "$unset" , unset );
+        return update;
+    }
+
+    void _changes( String prefix , DBObject set , DBObject unset ){
+        for ( String k : _dirty )
+            set.put( prefix + k , get( k ) );
+        for ( String k : _removed )
+            unset.put( prefix + k , 1 );
+
+        for ( String k : keySet() ){
+            if ( _dirty.contains( k ) )
+                continue;
+            Object v = get( k );
+            if ( v instanceof TrackedDBObject && ((TrackedDBObject)v)._tracking )
+                ((TrackedDBObject)v)._changes( prefix + k + "." , set , unset );
+        }
+    }
+
+    private boolean _tracking = false;
+    private final Set<String> _dirty = new LinkedHashSet<String>();
+    private final Set<String> _removed = new LinkedHashSet<String>();
+}
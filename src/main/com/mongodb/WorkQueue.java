@@ -0,0 +1,341 @@
+// WorkQueue.java
+
+/**
+ *      Copyright (C) 2010 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.mongodb;
+
+import java.util.*;
+
+import org.bson.types.*;
+
+/**
+ * Consumer side of a job queue kept in a collection.  Jobs are claimed in batches: up to
+ * {@link #setPrefetch prefetch} free jobs are leased with one multi-update and kept in a local buffer,
+ * completions are acknowledged {@link #setAckBatch ackBatch} at a time with one <code>remove</code>
+ * (or <code>update</code>), and when the queue is empty {@link #take} backs off exponentially
+ * up to {@link #setMaxBackoff maxBackoff} instead of polling in a loop.
+ * <blockquote><pre>
+ * WorkQueue q = new WorkQueue( db.getCollection( "jobs" ) ).setPrefetch( 20 );
+ * while ( running ){
+ *     DBObject job = q.take( 5000 );
+ *     if ( job == null )
+ *         continue;
+ *     process( job );
+ *     q.ack( job );
+ * }
+ * q.close();
+ * </pre></blockquote>
+ *
+ * <p>A claimed job gets <code>lease</code>, the time its lease ends, and <code>leaseToken</code>, an id
+ * of the claim.  A job whose lease ran out (its consumer died, or was too slow) is free again, and an
+ * ack only applies while the job still carries this consumer's token, so a job is acknowledged at most once.
+ * Leases are set from this machine's clock.  Producers just insert documents.</p>
+ */
+public class WorkQueue {
+
+    /**
+     * @param jobs the collection jobs are inserted into
+     */
+    public WorkQueue( DBCollection jobs ){
+        _jobs = jobs;
+    }
+
+    /**
+     * Only claims jobs matching <code>q</code>.  It can't use <code>$or</code>.
+     * @return this
+     */
+    public WorkQueue setQuery( DBObject q ){
+        if ( q != null && q.containsField( QueryOperators.OR ) )
+            throw new IllegalArgumentException( "queue query can't use $or" );
+        _query = q;
+        return this;
+    }
+
+    /**
+     * Order jobs are claimed in, e.g. <code>{ priority : -1 }</code>.  Defaults to <code>{ _id : 1 }</code>.
+     * @return this
+     */
+    public WorkQueue setSort( DBObject sort ){
+        _sort = sort;
+        return this;
+    }
+
+    /**
+     * How long a claimed job is ours.  Defaults to 5 minutes.
+     * @return this
+     */
+    public WorkQueue setLeaseMillis( long millis ){
+        if ( millis <= 0 )
+            throw new IllegalArgumentException( "lease has to be > 0" );
+        _leaseMillis = millis;
+        return this;
+    }
+
+    /**
+     * Number of jobs claimed per round trip.  Defaults to 10.
+     * @return this
+     */
+    public WorkQueue setPrefetch( int jobs ){
+        if ( jobs <= 0 )
+            throw new IllegalArgumentException( "prefetch has to be > 0" );
+        _prefetch = jobs;
+        return this;
+    }
+
+    /**
+     * Number of acks sent together.  Defaults to 10.
+     * @return this
+     */
+    public WorkQueue setAckBatch( int jobs ){
+        if ( jobs <= 0 )
+            throw new IllegalArgumentException( "ack batch has to be > 0" );
+        _ackBatch = jobs;
+        return this;
+    }
+
+    /**
+     * Longest wait between polls of an empty queue.  Defaults to 1000 ms.
+     * @return this
+     */
+    public WorkQueue setMaxBackoff( long millis ){
+        if ( millis <= 0 )
+            throw new IllegalArgumentException( "max backoff has to be > 0" );
+        _maxBackoff = millis;
+        return this;
+    }
+
+    /**
+     * If true (the default) acknowledged jobs are removed, otherwise they get <code>done : true</code> and stay.
+     * @return this
+     */
+    public WorkQueue setRemoveOnAck( boolean remove ){
+        _removeOnAck = remove;
+        return this;
+    }
+
+    /**
+     * Takes a job from the buffer, claiming more if it's empty.
+     * Buffered jobs whose lease ran out before they were taken may belong to another consumer by now,
+     * so they're given back instead.
+     * @return a claimed job or null if the queue is empty
+     */
+    public synchronized DBObject poll()
+        throws MongoException {
+        _checkClosed();
+        _dropExpired();
+        if ( _buffer.isEmpty() )
+            _claim();
+        return _buffer.poll();
+    }
+
+    /**
+     * Like {@link #poll}, but waits for a job, polling the queue less often the longer it stays empty.
+     * @param maxWait how long to wait, in ms
+     * @return a claimed job or null if none came
+     */
+    public DBObject take( long maxWait )
+        throws MongoException {
+        long end = System.currentTimeMillis() + maxWait;
+        while ( true ){
+            DBObject job = poll();
+            if ( job != null ){
+                _backoff = 0;
+                return job;
+            }
+
+            long left = end - System.currentTimeMillis();
+            if ( left <= 0 )
+                return null;
+
+            long sleep = _backoff == 0 ? MIN_BACKOFF : Math.min( _backoff * 2 , _maxBackoff );
+            _backoff = sleep;
+            try {
+                Thread.sleep( Math.min( sleep , left ) );
+            }
+            catch ( InterruptedException ie ){
+                Thread.currentThread().interrupt();
+                throw new MongoException( "interrupted waiting for a job" , ie );
+            }
+        }
+    }
+
+    /**
+     * Marks a job done.  Sent to the server once {@link #setAckBatch ackBatch} acks are waiting, or on {@link #flush}.
+     */
+    public synchronized void ack( DBObject job )
+        throws MongoException {
+        _checkClosed();
+        _acks.add( job );
+        if ( _acks.size() >= _ackBatch )
+            flush();
+    }
+
+    /**
+     * Gives a job back without doing it, so it can be claimed again right away.
+     */
+    public synchronized void release( DBObject job )
+        throws MongoException {
+        _release( Collections.singletonList( job ) );
+    }
+
+    /**
+     * Sends waiting acks.
+     */
+    public synchronized void flush()
+        throws MongoException {
+        if ( _acks.isEmpty() )
+            return;
+
+        DBObject q = _ours( _acks );
+        _acks.clear();
+
+        if ( _removeOnAck )
+            _jobs.remove( q );
+        else
+            _jobs.update( q , new BasicDBObject( "$set" , new BasicDBObject( DONE , true ) )
+                          .append( "$unset" , new BasicDBObject( LEASE , 1 ).append( TOKEN , 1 ) ) , false , true );
+    }
+
+    /**
+     * Sends waiting acks and gives back the buffered jobs that weren't taken.
+     */
+    public synchronized void close()
+        throws MongoException {
+        if ( _closed )
+            return;
+        flush();
+        _release( _buffer );
+        _buffer.clear();
+        _closed = true;
+    }
+
+    /**
+     * @return number of claimed jobs not taken yet
+     */
+    public synchronized int buffered(){
+        return _buffer.size();
+    }
+
+    /**
+     * leases up to prefetch free jobs: find candidates, lease those still free under a new token, load them
+     */
+    private void _claim()
+        throws MongoException {
+        Date now = new Date();
+        BasicDBObject free = new BasicDBObject();
+        if ( _query != null )
+            free.putAll( _query );
+        if ( ! _removeOnAck )
+            free.put( DONE , new BasicDBObject( "$ne" , true ) );
+        free.put( QueryOperators.OR , Arrays.asList( new BasicDBObject( LEASE , null ) ,
+                                                     new BasicDBObject( LEASE , new BasicDBObject( "$lt" , now ) ) ) );
+
+        List<Object> ids = new ArrayList<Object>();
+        DBCursor c = _jobs.find( free , new BasicDBObject( "_id" , 1 ) ).sort( _sort ).limit( _prefetch );
+        try {
+            while ( c.hasNext() )
+                ids.add( c.next().get( "_id" ) );
+        }
+        finally {
+            c.close();
+        }
+        if ( ids.isEmpty() )
+            return;
+
+        // someone else may have leased some of them in between, the query checks again
+        ObjectId token = new ObjectId();
+        free.put( "_id" , new BasicDBObject( QueryOperators.IN , ids ) );
+        _jobs.update( free , new BasicDBObject( "$set" , new BasicDBObject( LEASE , new Date( now.getTime() + _leaseMillis ) )
+                                                .append( TOKEN , token ) ) , false , true );
+
+        c = _jobs.find( new BasicDBObject( TOKEN , token ) ).sort( _sort );
+        try {
+            while ( c.hasNext() )
+                _buffer.add( c.next() );
+        }
+        finally {
+            c.close();
+        }
+    }
+
+    private void _dropExpired()
+        throws MongoException {
+        if ( _buffer.isEmpty() )
+            return;
+
+        final long now = System.currentTimeMillis();
+        List<DBObject> expired = null;
+        for ( Iterator<DBObject> i = _buffer.iterator(); i.hasNext(); ){
+            DBObject job = i.next();
+            Object lease = job.get( LEASE );
+            if ( lease instanceof Date && ((Date)lease).getTime() > now )
+                continue;
+            if ( expired == null )
+                expired = new ArrayList<DBObject>();
+            expired.add( job );
+            i.remove();
+        }
+        if ( expired != null )
+            _release( expired );
+    }
+
+    private void _release( Collection<DBObject> jobs )
+        throws MongoException {
+        if ( jobs.isEmpty() )
+            return;
+        _jobs.update( _ours( jobs ) , new BasicDBObject( "$unset" , new BasicDBObject( LEASE , 1 ).append( TOKEN , 1 ) ) , false , true );
+    }
+
+    /**
+     * matches the jobs only while they're still leased by us
+     */
+    private DBObject _ours( Collection<DBObject> jobs ){
+        List<Object> ids = new ArrayList<Object>( jobs.size() );
+        Set<Object> tokens = new HashSet<Object>();
+        for ( DBObject job : jobs ){
+            ids.add( job.get( "_id" ) );
+            tokens.add( job.get( TOKEN ) );
+        }
+        return new BasicDBObject( "_id" , new BasicDBObject( QueryOperators.IN , ids ) )
+            .append( TOKEN , new BasicDBObject( QueryOperators.IN , new ArrayList<Object>( tokens ) ) );
+    }
+
+    private void _checkClosed(){
+        if ( _closed )
+            throw new IllegalStateException( "work queue on " + _jobs.getFullName() + " is closed" );
+    }
+
+    static final String LEASE = "lease";
+    static final String TOKEN = "leaseToken";
+    static final String DONE = "done";
+    static final long MIN_BACKOFF = 10;
+
+    final DBCollection _jobs;
+
+    private DBObject _query;
+    private DBObject _sort = new BasicDBObject( "_id" , 1 );
+    private long _leaseMillis = 5 * 60 * 1000;
+    private int _prefetch = 10;
+    private int _ackBatch = 10;
+    private long _maxBackoff = 1000;
+    private boolean _removeOnAck = true;
+
+    private final LinkedList<DBObject> _buffer = new LinkedList<DBObject>();
+    private final List<DBObject> _acks = new ArrayList<DBObject>();
+    private volatile long _backoff = 0;
+    private boolean _closed = false;
+}
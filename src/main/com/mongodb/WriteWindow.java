@@ -0,0 +1,367 @@
+// WriteWindow.java
+
+/**
+ *      Copyright (C) 2010 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.mongodb;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.*;
+
+/**
+ * Acknowledges writes a window at a time: writes go out on one connection without waiting,
+ * and a single <code>getlasterror</code> with the window's {@link WriteConcern} (w, fsync, ...)
+ * is sent after <tt>maxWrites</tt> writes or <tt>maxMillis</tt> ms, whichever comes first.
+ * Each write returns the {@link Ack} of its window, which is resolved by that <code>getlasterror</code>.
+ * <blockquote><pre>
+ * WriteWindow w = new WriteWindow( mongo , WriteConcern.REPLICAS_SAFE , 100 , 20 );
+ * for ( DBObject o : events )
+ *     w.insert( coll , o );
+ * w.close();  // acknowledges the last window
+ * </pre></blockquote>
+ *
+ * <p>Since <code>getlasterror</code> waits for everything before it on the connection, a good {@link Ack}
+ * means all the window's writes were applied (and replicated, for <tt>w</tt> &gt; 1).
+ * An error only says the last write of the window failed; earlier failures in a window aren't reported.</p>
+ *
+ * <p>The connection is taken out of the pool for the life of the window, so close it when done.
+ * Callbacks run on the thread that sent the <code>getlasterror</code>, a writer's or the window's timer
+ * thread, so keep them short.</p>
+ * @dochub writeconcern
+ */
+public class WriteWindow {
+
+    /**
+     * Called when a window is acknowledged.
+     */
+    public static interface Callback {
+        /**
+         * @param result the <code>getlasterror</code> result, null if failed
+         * @param error what went wrong, null if ok
+         */
+        public void done( WriteResult result , MongoException error );
+    }
+
+    /**
+     * @param mongo where to write
+     * @param concern sent with each window's <code>getlasterror</code>, has to call it
+     * @param maxWrites acknowledge after this many writes
+     * @param maxMillis acknowledge this long after a window's first write
+     */
+    public WriteWindow( Mongo mongo , WriteConcern concern , int maxWrites , long maxMillis ){
+        if ( ! concern.callGetLastError() )
+            throw new IllegalArgumentException( "write concern has to call getlasterror" );
+        if ( maxWrites <= 0 || maxMillis <= 0 )
+            throw new IllegalArgumentException( "bad window maxWrites: " + maxWrites + " maxMillis: " + maxMillis );
+
+        _connector = mongo._connector;
+        _concern = concern;
+        _maxWrites = maxWrites;
+        _maxMillis = maxMillis;
+    }
+
+    /**
+     * Inserts documents, an _id is added to those that don't have one.
+     * @return the ack of the window the documents went into
+     */
+    public Ack insert( DBCollection c , DBObject ... docs )
+        throws MongoException {
+        List<BulkWrite.Op> ops = new ArrayList<BulkWrite.Op>( docs.length );
+        for ( DBObject o : docs )
+            ops.add( new BulkWrite.Op( BulkWrite.Op.INSERT , null , o , false , false ) );
+        return _write( c , ops );
+    }
+
+    /**
+     * @return the ack of the window the update went into
+     */
+    public Ack update( DBCollection c , DBObject q , DBObject o , boolean upsert , boolean multi )
+        throws MongoException {
+        return _write( c , Collections.singletonList( new BulkWrite.Op( BulkWrite.Op.UPDATE , q , o , upsert , multi ) ) );
+    }
+
+    /**
+     * @return the ack of the window the remove went into
+     */
+    public Ack remove( DBCollection c , DBObject q )
+        throws MongoException {
+        return _write( c , Collections.singletonList( new BulkWrite.Op( BulkWrite.Op.REMOVE , q , null , false , false ) ) );
+    }
+
+    /**
+     * Acknowledges the current window now.
+     * @return its ack, already done, or null if nothing was written since the last one
+     */
+    public synchronized Ack flush(){
+        Ack a = _current;
+        _acknowledge();
+        return a;
+    }
+
+    /**
+     * Acknowledges the current window and gives the connection back.  Later writes throw.
+     */
+    public synchronized void close(){
+        if ( _closed )
+            return;
+        _acknowledge();
+        _closed = true;
+        notifyAll();
+        if ( _port != null ){
+            _connector.unpin( _port , null );
+            _port = null;
+        }
+    }
+
+    private Ack _write( DBCollection c , List<BulkWrite.Op> ops )
+        throws MongoException {
+        if ( ! ( c instanceof DBApiLayer.MyCollection ) )
+            throw new IllegalArgumentException( "can't write to a " + c.getClass().getName() + " in a window" );
+
+        List<OutMessage> msgs = ((DBApiLayer.MyCollection)c)._bulkMessages( ops , true );
+
+        synchronized ( this ){
+            try {
+                if ( _closed )
+                    throw new IllegalStateException( "write window closed" );
+
+                if ( _port == null )
+                    _port = _connector.pin();
+                _port.checkAuth( c._db );
+
+                for ( OutMessage m : msgs )
+                    _port.say( m );
+            }
+            catch ( IOException ioe ){
+                _failed( ioe );
+                throw new MongoException.Network( "can't say something" , ioe );
+            }
+            finally {
+                for ( OutMessage m : msgs )
+                    m.doneWithMessage();
+            }
+
+            if ( _current == null ){
+                _current = new Ack();
+                _windowStart = System.currentTimeMillis();
+                _startTimer();
+                notifyAll();
+            }
+
+            Ack a = _current;
+            a._writes++;
+            _lastDB = c._db;
+
+            if ( a._writes >= _maxWrites )
+                _acknowledge();
+            return a;
+        }
+    }
+
+    /**
+     * sends the getlasterror for the current window and resolves its ack. needs the lock.
+     */
+    private void _acknowledge(){
+        Ack a = _current;
+        if ( a == null )
+            return;
+        _current = null;
+
+        WriteResult res = null;
+        MongoException err = null;
+        try {
+            CommandResult e = _port.runCommand( _lastDB , _concern.getCommand() );
+            res = _connector._checkWriteError( e , _concern );
+        }
+        catch ( RuntimeException re ){
+            err = re instanceof MongoException ? (MongoException)re : new MongoException( "getlasterror failed" , re );
+            if ( _lostConnection( re ) ){
+                _connector.unpin( _port , re );
+                _port = null;
+            }
+        }
+        a._done( res , err );
+    }
+
+    /**
+     * an error reported by the server leaves the connection usable, anything else
+     * (an I/O failure, possibly wrapped in a MongoInternalException) means it's gone
+     */
+    static boolean _lostConnection( Throwable t ){
+        if ( ! ( t instanceof MongoException ) || t instanceof MongoException.Network )
+            return true;
+        for ( Throwable c = t.getCause(); c != null; c = c.getCause() )
+            if ( c instanceof IOException )
+                return true;
+        return false;
+    }
+
+    /**
+     * the connection broke, the window can't be acknowledged
+     */
+    private void _failed( IOException ioe ){
+        _connector.unpin( _port , ioe );
+        _port = null;
+
+        Ack a = _current;
+        _current = null;
+        if ( a != null )
+            a._done( null , new MongoException.Network( "window lost its connection" , ioe ) );
+    }
+
+    private void _startTimer(){
+        if ( _timer != null )
+            return;
+        _timer = new Thread( "WriteWindow timer" ){
+                public void run(){
+                    synchronized ( WriteWindow.this ){
+                        while ( ! _closed ){
+                            try {
+                                if ( _current == null ){
+                                    WriteWindow.this.wait();
+                                    continue;
+                                }
+                                long left = _windowStart + _maxMillis - System.currentTimeMillis();
+                                if ( left > 0 ){
+                                    WriteWindow.this.wait( left );
+                                    continue;
+                                }
+                                _acknowledge();
+                            }
+                            catch ( InterruptedException ie ){
+                                return;
+                            }
+                            catch ( Throwable t ){
+                                _logger.log( Level.WARNING , "acknowledging write window failed" , t );
+                            }
+                        }
+                    }
+                }
+            };
+        _timer.setDaemon( true );
+        _timer.start();
+    }
+
+    /**
+     * The outcome of one window of writes.
+     */
+    public class Ack implements Future<WriteResult> {
+
+        /**
+         * Calls <code>c</code> when the window is acknowledged, right away if it already was.
+         */
+        public void addCallback( Callback c ){
+            synchronized ( this ){
+                if ( ! _done ){
+                    _callbacks.add( c );
+                    return;
+                }
+            }
+            c.done( _result , _error );
+        }
+
+        public boolean cancel( boolean mayInterruptIfRunning ){
+            return false;
+        }
+
+        public boolean isCancelled(){
+            return false;
+        }
+
+        public synchronized boolean isDone(){
+            return _done;
+        }
+
+        /**
+         * @throws ExecutionException holding the MongoException if the window failed
+         */
+        public synchronized WriteResult get()
+            throws InterruptedException , ExecutionException {
+            while ( ! _done )
+                wait();
+            return _get();
+        }
+
+        public synchronized WriteResult get( long timeout , TimeUnit unit )
+            throws InterruptedException , ExecutionException , TimeoutException {
+            long end = System.currentTimeMillis() + unit.toMillis( timeout );
+            while ( ! _done ){
+                long left = end - System.currentTimeMillis();
+                if ( left <= 0 )
+                    throw new TimeoutException( "write window not acknowledged yet" );
+                wait( left );
+            }
+            return _get();
+        }
+
+        /**
+         * @return number of writes in the window so far
+         */
+        public synchronized int getNumWrites(){
+            return _writes;
+        }
+
+        private WriteResult _get()
+            throws ExecutionException {
+            if ( _error != null )
+                throw new ExecutionException( _error );
+            return _result;
+        }
+
+        void _done( WriteResult result , MongoException error ){
+            List<Callback> callbacks;
+            synchronized ( this ){
+                _result = result;
+                _error = error;
+                _done = true;
+                notifyAll();
+                callbacks = new ArrayList<Callback>( _callbacks );
+                _callbacks.clear();
+            }
+
+            for ( Callback c : callbacks ){
+                try {
+                    c.done( result , error );
+                }
+                catch ( RuntimeException re ){
+                    _logger.log( Level.WARNING , "write window callback failed" , re );
+                }
+            }
+        }
+
+        int _writes = 0;
+        private boolean _done = false;
+        private WriteResult _result;
+        private MongoException _error;
+        private final List<Callback> _callbacks = new ArrayList<Callback>();
+    }
+
+    final DBTCPConnector _connector;
+    final WriteConcern _concern;
+    final int _maxWrites;
+    final long _maxMillis;
+
+    private DBPort _port;
+    private DB _lastDB;
+    private Ack _current;
+    private long _windowStart;
+    private boolean _closed = false;
+    private Thread _timer;
+
+    static final Logger _logger = Logger.getLogger( Bytes.LOGGER.getName() + ".writewindow" );
+}
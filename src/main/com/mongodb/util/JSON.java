@@ -93,12 +93,12 @@ public class JSON {
             return;
         }
         
-        if ( o instanceof DBObject){
+        if ( o instanceof BSONObject){
  
             boolean first = true;
             buf.append( "{ " );
             
-            DBObject dbo = (DBObject)o;
+            BSONObject dbo = (BSONObject)o;
             
             for ( String name : dbo.keySet() ){
                 if ( first ) first = false;
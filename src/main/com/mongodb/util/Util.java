@@ -41,6 +41,25 @@ public class Util {
 
     }
 
+    /**
+     * Inverse of toHex
+     * @throws IllegalArgumentException if <code>s</code> isn't an even length hex string
+     */
+    public static byte[] fromHex( String s ){
+        if ( s.length() % 2 != 0 )
+            throw new IllegalArgumentException( "odd length hex string" );
+
+        byte[] b = new byte[ s.length() / 2 ];
+        for ( int i=0; i<b.length; i++ ){
+            int hi = Character.digit( s.charAt( 2 * i ) , 16 );
+            int lo = Character.digit( s.charAt( 2 * i + 1 ) , 16 );
+            if ( hi < 0 || lo < 0 )
+                throw new IllegalArgumentException( "not a hex string: " + s );
+            b[i] = (byte)( ( hi << 4 ) | lo );
+        }
+        return b;
+    }
+
     /**
      *  Produce hex representation of the MD5 digest of a byte array
      *
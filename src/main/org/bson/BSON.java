@@ -258,6 +258,20 @@ public class BSON {
         clearDecodingHooks();
     }
 
+    /**
+     * Returns true if any encoding hooks were ever added.
+     */
+    public static boolean hasEncodingHooks(){
+        return _encodeHooks;
+    }
+
+    /**
+     * Returns true if any decoding hooks were ever added.
+     */
+    public static boolean hasDecodingHooks(){
+        return _decodeHooks;
+    }
+
     /**
      * Returns true if any encoding or decoding hooks are loaded.
      */
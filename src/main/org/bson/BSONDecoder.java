@@ -6,6 +6,8 @@ import com.mongodb.BasicDBObject;
 import static org.bson.BSON.*;
 
 import java.io.*;
+import java.nio.*;
+import java.util.*;
 
 import org.bson.io.*;
 import org.bson.types.*;
@@ -42,6 +44,77 @@ public class BSONDecoder {
         throws IOException {
         return _decode( new Input( in ) , callback );
     }
+
+    /**
+     * Decodes the object at the buffer's position, reading the buffer in place, so it works the same on
+     * heap, direct and memory mapped buffers without copying the object out first.  The position is moved
+     * past the object, so a file of objects can be read through one mapping:
+     * <blockquote><pre>
+     * MappedByteBuffer buf = channel.map( FileChannel.MapMode.READ_ONLY , 0 , channel.size() );
+     * while ( buf.hasRemaining() ){
+     *     decoder.decode( buf , callback );
+     *     ...
+     * }
+     * </pre></blockquote>
+     * The buffer's byte order doesn't matter and isn't changed.
+     * @return the number of bytes consumed, the size of the object
+     * @throws IllegalArgumentException if the data is bad or the object goes past the buffer's limit,
+     *         the position is left where it was
+     */
+    public int decode( ByteBuffer buf , BSONCallback callback ){
+        final int start = buf.position();
+        if ( buf.remaining() < 5 )
+            throw new IllegalArgumentException( "not enough data for an object, only " + buf.remaining() + " bytes left" );
+
+        ByteBuffer in = buf.duplicate();
+        in.order( ByteOrder.LITTLE_ENDIAN );
+        final int len = in.getInt( start );
+        if ( len < 5 || len > buf.remaining() )
+            throw new IllegalArgumentException( "bad object size: " + len + " with " + buf.remaining() + " bytes left" );
+        in.limit( start + len );
+
+        try {
+            _decode( new BufferInput( in , start ) , callback );
+        }
+        catch ( IndexOutOfBoundsException e ){
+            throw new IllegalArgumentException( "bad data, object runs past its length" , e );
+        }
+        catch ( IOException ioe ){
+            throw new RuntimeException( "should be impossible" , ioe );
+        }
+
+        buf.position( start + len );
+        return len;
+    }
+
+    /**
+     * Decodes only some fields, the rest are skipped over using their length without being decoded.
+     * @param fields dotted paths of the fields wanted, like <code>"name"</code> or <code>"address.city"</code>.
+     *               A path into an array applies to each object in the array.
+     * @return the size of the whole object
+     */
+    public int decode( byte[] b , BSONCallback callback , Collection<String> fields ){
+        try {
+            return decode( new ByteArrayInputStream( b ) , callback , fields );
+        }
+        catch ( IOException ioe ){
+            throw new RuntimeException( "should be impossible" , ioe );
+        }
+    }
+
+    /**
+     * @see #decode( byte[] , BSONCallback , Collection )
+     */
+    public int decode( InputStream in , BSONCallback callback , Collection<String> fields )
+        throws IOException {
+        _filter = Filter.build( fields );
+        try {
+            return _decode( new Input( in ) , callback );
+        }
+        finally {
+            _filter = null;
+        }
+    }
     
     private int _decode( Input in  , BSONCallback callback )
         throws IOException {
@@ -51,6 +124,7 @@ public class BSONDecoder {
         
         _in = in;
         _callback = callback;
+        _inArray = false;
         
         if ( in._read != 0 )
             throw new IllegalArgumentException( "i'm confused" );
@@ -105,6 +179,23 @@ public class BSONDecoder {
             return false;
         
         String name = _in.readCStr();
+
+        // what applies inside this field, null for everything
+        Filter sub = null;
+        if ( _filter != null ){
+            if ( _inArray ){
+                sub = _filter;
+            }
+            else {
+                sub = _filter._children.get( name );
+                if ( sub == null ){
+                    _skip( type );
+                    return true;
+                }
+                if ( sub._all )
+                    sub = null;
+            }
+        }
         
         switch ( type ){
         case NULL:
@@ -168,30 +259,53 @@ public class BSONDecoder {
             _callback.gotCode( name , _in.readUTF8String() );
             break;
 
-        case CODE_W_SCOPE:
+        case CODE_W_SCOPE: {
             _in.readInt();
-            _callback.gotCodeWScope( name , _in.readUTF8String() , _readBasicObject() );
-
+            String code = _in.readUTF8String();
+            Filter save = _filter;
+            _filter = null;
+            try {
+                _callback.gotCodeWScope( name , code , _readBasicObject() );
+            }
+            finally {
+                _filter = save;
+            }
             break;
+        }
 
-        case ARRAY:
+        case ARRAY: {
             _in.readInt();  // total size - we don't care....
 
+            Filter save = _filter;
+            boolean saveInArray = _inArray;
+            _filter = sub;
+            _inArray = sub != null;
+
             _callback.arrayStart( name );
             while ( decodeElement() );
             _callback.arrayDone();
 
+            _filter = save;
+            _inArray = saveInArray;
             break;
+        }
             
-            
-        case OBJECT:
+        case OBJECT: {
             _in.readInt();  // total size - we don't care....
             
+            Filter save = _filter;
+            boolean saveInArray = _inArray;
+            _filter = sub;
+            _inArray = false;
+
             _callback.objectStart( name );
             while ( decodeElement() );
             _callback.objectDone();
 
+            _filter = save;
+            _inArray = saveInArray;
             break;
+        }
             
         case TIMESTAMP:
             int i = _in.readInt();
@@ -214,6 +328,56 @@ public class BSONDecoder {
         return true;
     }
 
+    /**
+     * skips a value by its size, nothing is decoded
+     */
+    void _skip( byte type )
+        throws IOException {
+        switch ( type ){
+        case NULL:
+        case UNDEFINED:
+        case MINKEY:
+        case MAXKEY:
+            return;
+        case BOOLEAN:
+            _in.skip( 1 );
+            return;
+        case NUMBER_INT:
+            _in.skip( 4 );
+            return;
+        case NUMBER:
+        case NUMBER_LONG:
+        case DATE:
+        case TIMESTAMP:
+            _in.skip( 8 );
+            return;
+        case OID:
+            _in.skip( 12 );
+            return;
+        case STRING:
+        case SYMBOL:
+        case CODE:
+            _in.skip( _in.readInt() );
+            return;
+        case REF:
+            _in.skip( _in.readInt() + 12 );
+            return;
+        case OBJECT:
+        case ARRAY:
+        case CODE_W_SCOPE:
+            _in.skip( _in.readInt() - 4 );
+            return;
+        case BINARY:
+            _in.skip( _in.readInt() + 1 );
+            return;
+        case REGEX:
+            while ( _in.read() != 0 );
+            while ( _in.read() != 0 );
+            return;
+        }
+        throw new UnsupportedOperationException( "BSONDecoder doesn't understand type : " + type );
+    }
+
     void _binary( String name )
         throws IOException {
         final int totalLen = _in.readInt();
@@ -267,7 +431,7 @@ public class BSONDecoder {
         return _basic.get();
     }
     
-    final class Input {
+    class Input {
         
         Input( InputStream in ){
             _raw = in;
@@ -345,6 +509,25 @@ public class BSONDecoder {
             return _inputBuffer[_need(1)];
         }
 
+        void skip( int num )
+            throws IOException {
+            if ( num < 0 )
+                throw new IllegalArgumentException( "bad size to skip: " + num );
+
+            int have = Math.min( num , _len - _pos );
+            _pos += have;
+            _read += have;
+            num -= have;
+
+            while ( num > 0 ){
+                int x = _raw.read( _random , 0 , Math.min( num , _random.length ) );
+                if ( x <= 0 )
+                    throw new IOException( "unexpected EOF" );
+                _read += x;
+                num -= x;
+            }
+        }
+
         void fill( byte b[] )
             throws IOException {
             fill( b , b.length );
@@ -377,56 +560,73 @@ public class BSONDecoder {
             return b >=0 && b <= 127;
         }
 
+        /**
+         * reads a c string, names of up to {@link #MAX_CACHED_NAME} bytes come from the name cache,
+         * so documents sharing a schema share their key strings
+         */
         String readCStr()
             throws IOException {
             
+            int len = 0;
+            int hash = 0;
             boolean isAscii = true;
 
-            // short circuit 1 byte strings
-            _random[0] = read();
-            if (_random[0] == 0) {
-                return "";
+            while ( true ){
+                final byte b = read();
+                if ( b == 0 )
+                    break;
+                if ( len == _random.length ){
+                    byte[] bigger = new byte[ _random.length * 2 ];
+                    System.arraycopy( _random , 0 , bigger , 0 , len );
+                    _random = bigger;
+                }
+                _random[len++] = b;
+                hash = 31 * hash + b;
+                isAscii = isAscii && b >= 0;
             }
 
-            _random[1] = read();
-            if (_random[1] == 0) {
+            if ( len == 0 )
+                return "";
+
+            if ( len == 1 && isAscii ){
                 String out = ONE_BYTE_STRINGS[_random[0]];
-                if (out != null) {
+                if ( out != null )
                     return out;
-                }
-                return new String(_random, 0, 1, "UTF-8");
             }
 
-            _stringBuffer.reset();
-            _stringBuffer.write(_random[0]);
-            _stringBuffer.write(_random[1]);
-
-            isAscii = _isAscii(_random[0]) && _isAscii(_random[1]);
-            
-            while ( true ){
-                byte b = read();
-                if ( b == 0 )
-                    break;
-                _stringBuffer.write( b );
-                isAscii = isAscii && _isAscii( b );
-            }
-            
-            String out = null;
-            if ( isAscii ){
-                out = _stringBuffer.asAscii();
-            }
-            else {
-                try {
-                    out = _stringBuffer.asString( "UTF-8" );
-                }
-                catch ( UnsupportedOperationException e ){
-                    throw new RuntimeException( "impossible" , e );
-                }
+            if ( len > MAX_CACHED_NAME )
+                return _string( len , isAscii );
+
+            final int slot = ( hash ^ ( hash >>> 16 ) ) & ( _nameCache.length - 1 );
+            final CachedName c = _nameCache[slot];
+            if ( c != null && c._hash == hash && c._bytes.length == len ){
+                int i = 0;
+                while ( i < len && c._bytes[i] == _random[i] )
+                    i++;
+                if ( i == len )
+                    return c._string;
             }
-            _stringBuffer.reset();
+
+            final String out = _string( len , isAscii );
+            final byte[] bytes = new byte[len];
+            System.arraycopy( _random , 0 , bytes , 0 , len );
+            _nameCache[slot] = new CachedName( bytes , out , hash );
             return out;
         }
 
+        /**
+         * @return the first <code>len</code> bytes of <code>_random</code> as a string
+         */
+        private String _string( int len , boolean isAscii )
+            throws IOException {
+            if ( isAscii && len <= _shortChar.length ){
+                for ( int i=0; i<len; i++ )
+                    _shortChar[i] = (char)_random[i];
+                return new String( _shortChar , 0 , len );
+            }
+            return new String( _random , 0 , len , "UTF-8" );
+        }
+
         String readUTF8String()
             throws IOException {
             int size = readInt();
@@ -465,13 +665,140 @@ public class BSONDecoder {
     }
 
 
+    /**
+     * reads a buffer in place with absolute gets, <code>_read</code> being the offset from the object's start
+     */
+    final class BufferInput extends Input {
+
+        BufferInput( ByteBuffer buf , int start ){
+            super( null );
+            _buf = buf;
+            _start = start;
+        }
+
+        int readInt()
+            throws IOException {
+            final int x = _buf.getInt( _start + _read );
+            _read += 4;
+            return x;
+        }
+
+        long readLong()
+            throws IOException {
+            final long x = _buf.getLong( _start + _read );
+            _read += 8;
+            return x;
+        }
+
+        byte read()
+            throws IOException {
+            return _buf.get( _start + _read++ );
+        }
+
+        void skip( int num )
+            throws IOException {
+            if ( num < 0 || _start + _read + num > _buf.limit() )
+                throw new IllegalArgumentException( "bad size to skip: " + num );
+            _read += num;
+        }
+
+        void fill( byte b[] , int len )
+            throws IOException {
+            // checked here, a relative get would throw BufferUnderflowException instead
+            if ( len < 0 || _start + _read + len > _buf.limit() )
+                throw new IndexOutOfBoundsException( "can't read " + len + " bytes, runs past the end" );
+            _buf.position( _start + _read );
+            _buf.get( b , 0 , len );
+            _read += len;
+        }
+
+        String readUTF8String()
+            throws IOException {
+            final int size = readInt();
+            if ( size <= 0 || size > ( 3 * 1024 * 1024 ) )
+                throw new RuntimeException( "bad string size: " + size );
+
+            if ( size == 1 ){
+                read();
+                return "";
+            }
+
+            if ( _buf.hasArray() ){
+                final int pos = _start + _read;
+                if ( pos + size > _buf.limit() )
+                    throw new IndexOutOfBoundsException( "string runs past the end" );
+                _read += size;
+                return new String( _buf.array() , _buf.arrayOffset() + pos , size - 1 , "UTF-8" );
+            }
+
+            // direct memory has to come onto the heap for a String anyway
+            byte[] b = size < _random.length ? _random : new byte[size];
+            fill( b , size );
+            return new String( b , 0 , size - 1 , "UTF-8" );
+        }
+
+        final ByteBuffer _buf;
+        final int _start;
+    }
+
+    /**
+     * tree of the wanted field paths
+     */
+    static final class Filter {
+
+        static Filter build( Collection<String> fields ){
+            Filter root = new Filter();
+            for ( String f : fields ){
+                Filter cur = root;
+                for ( String part : f.split( "\\." ) ){
+                    if ( cur._all )
+                        break;
+                    Filter next = cur._children.get( part );
+                    if ( next == null ){
+                        next = new Filter();
+                        cur._children.put( part , next );
+                    }
+                    cur = next;
+                }
+                cur._all = true;
+                cur._children.clear();
+            }
+            return root;
+        }
+
+        final Map<String,Filter> _children = new HashMap<String,Filter>();
+        boolean _all = false;
+    }
+
     private Input _in;
     private BSONCallback _callback;
+    private Filter _filter;
+    private boolean _inArray;
     private byte[] _random = new byte[1024]; // has to be used within a single function
     private char[] _shortChar = new char[1024];
     private byte[] _inputBuffer = new byte[1024];
 
-    private PoolOutputBuffer _stringBuffer = new PoolOutputBuffer();
+    /**
+     * a decoded name and the bytes it came from
+     */
+    static final class CachedName {
+        CachedName( byte[] bytes , String string , int hash ){
+            _bytes = bytes;
+            _string = string;
+            _hash = hash;
+        }
+
+        final byte[] _bytes;
+        final String _string;
+        final int _hash;
+    }
+
+    static final int MAX_CACHED_NAME = 64;
+
+    /**
+     * direct mapped, a new name replaces whatever was in its slot, so it's bounded at 256 names
+     */
+    private final CachedName[] _nameCache = new CachedName[256];
 
     static final String[] ONE_BYTE_STRINGS = new String[128];
     static void _fillRange( byte min, byte max ){
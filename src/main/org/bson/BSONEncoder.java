@@ -9,6 +9,7 @@ import java.nio.*;
 import java.nio.charset.*;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.*;
 import java.util.concurrent.atomic.*;
 import java.util.regex.*;
 
@@ -85,6 +86,14 @@ public class BSONEncoder {
 
         if ( handleSpecialObjects( name , o ) )
             return _buf.getPosition() - start;
+
+        // unchanged lazy objects go back out as they came in
+        if ( o instanceof LazyBSONObject && ! ((LazyBSONObject)o).isChanged() && ! o.containsField( "_transientFields" ) ){
+            if ( name != null )
+                _put( myType , name );
+            ((LazyBSONObject)o).pipe( _buf );
+            return _buf.getPosition() - start;
+        }
         
         if ( name != null ){
             _put( myType , name );
@@ -149,75 +158,203 @@ public class BSONEncoder {
         
         if ( DEBUG ) System.out.println( "\t put thing : " + name );
         
-        if ( name.equals( "$where") && val instanceof String ){
+        if ( val instanceof String && name.equals( "$where") ){
             _put( CODE , name );
             _putValueString( val.toString() );
             return;
         }
         
-        val = BSON.applyEncodingHooks( val );
+        if ( BSON.hasEncodingHooks() )
+            val = BSON.applyEncodingHooks( val );
 
-        if ( val == null )
+        if ( val == null ){
             putNull(name);
-        else if ( val instanceof Date )
-            putDate( name , (Date)val );
-        else if ( val instanceof Number )
-            putNumber(name, (Number)val );
-        else if ( val instanceof String )
-            putString(name, val.toString() );
-        else if ( val instanceof ObjectId )
-            putObjectId(name, (ObjectId)val );
-        else if ( val instanceof BSONObject )
-            putObject(name, (BSONObject)val );
-        else if ( val instanceof Boolean )
-            putBoolean(name, (Boolean)val );
-        else if ( val instanceof Pattern )
-            putPattern(name, (Pattern)val );
-        else if ( val instanceof Map )
-            putMap( name , (Map)val );
-        else if ( val instanceof Iterable)
-            putIterable( name , (Iterable)val );
-        else if ( val instanceof byte[] )
-            putBinary( name , (byte[])val );
-        else if ( val instanceof Binary )
-            putBinary( name , (Binary)val );
-        else if ( val instanceof UUID )
-            putUUID( name , (UUID)val );
-        else if ( val.getClass().isArray() )
-        	putArray( name , val );
-
-        else if (val instanceof Symbol) {
-            putSymbol(name, (Symbol) val);
+            return;
         }
-        else if (val instanceof BSONTimestamp) {
-            putTimestamp( name , (BSONTimestamp)val );
+
+        switch ( _writerFor( val.getClass() ) ){
+        case W_DATE: putDate( name , (Date)val ); return;
+        case W_NUMBER: putNumber(name, (Number)val ); return;
+        case W_STRING: putString(name, val.toString() ); return;
+        case W_OID: putObjectId(name, (ObjectId)val ); return;
+        case W_OBJECT: putObject(name, (BSONObject)val ); return;
+        case W_BOOLEAN: putBoolean(name, (Boolean)val ); return;
+        case W_PATTERN: putPattern(name, (Pattern)val ); return;
+        case W_MAP: putMap( name , (Map)val ); return;
+        case W_ITERABLE: putIterable( name , (Iterable)val ); return;
+        case W_BYTES: putBinary( name , (byte[])val ); return;
+        case W_BINARY: putBinary( name , (Binary)val ); return;
+        case W_UUID: putUUID( name , (UUID)val ); return;
+        case W_ARRAY: putArray( name , val ); return;
+        case W_NUMBER_LIST: putNumberList( name , (NumberList)val ); return;
+        case W_SYMBOL: putSymbol(name, (Symbol) val); return;
+        case W_TIMESTAMP: putTimestamp( name , (BSONTimestamp)val ); return;
+        case W_CODE_W_SCOPE: putCodeWScope( name , (CodeWScope)val ); return;
+        case W_CODE: putCode( name , (Code)val ); return;
         }
-        else if (val instanceof CodeWScope) {
-            putCodeWScope( name , (CodeWScope)val );
+
+        if ( putSpecial( name , val ) )
+            return;
+        throw new IllegalArgumentException( "can't serialize " + val.getClass() );
+    }
+
+    /**
+     * @return which put method handles values of class <code>c</code>, resolved once per class
+     */
+    static int _writerFor( Class c ){
+        // the most common final classes don't need the map
+        if ( c == String.class ) return W_STRING;
+        if ( c == Integer.class || c == Double.class || c == Long.class ) return W_NUMBER;
+        if ( c == ObjectId.class ) return W_OID;
+        if ( c == Boolean.class ) return W_BOOLEAN;
+
+        Integer w = _writers.get( c );
+        if ( w == null ){
+            w = _resolveWriter( c );
+            _writers.put( c , w );
+        }
+        return w;
+    }
+
+    /**
+     * same precedence as testing the value with instanceof, e.g. a BSONObject that's also a Map is written as a BSONObject
+     */
+    static int _resolveWriter( Class c ){
+        if ( Date.class.isAssignableFrom( c ) ) return W_DATE;
+        if ( Number.class.isAssignableFrom( c ) ) return W_NUMBER;
+        if ( String.class.isAssignableFrom( c ) ) return W_STRING;
+        if ( ObjectId.class.isAssignableFrom( c ) ) return W_OID;
+        if ( NumberList.class.isAssignableFrom( c ) ) return W_NUMBER_LIST;
+        if ( BSONObject.class.isAssignableFrom( c ) ) return W_OBJECT;
+        if ( Boolean.class.isAssignableFrom( c ) ) return W_BOOLEAN;
+        if ( Pattern.class.isAssignableFrom( c ) ) return W_PATTERN;
+        if ( Map.class.isAssignableFrom( c ) ) return W_MAP;
+        if ( Iterable.class.isAssignableFrom( c ) ) return W_ITERABLE;
+        if ( c == byte[].class ) return W_BYTES;
+        if ( Binary.class.isAssignableFrom( c ) ) return W_BINARY;
+        if ( UUID.class.isAssignableFrom( c ) ) return W_UUID;
+        if ( c.isArray() ) return W_ARRAY;
+        if ( Symbol.class.isAssignableFrom( c ) ) return W_SYMBOL;
+        if ( BSONTimestamp.class.isAssignableFrom( c ) ) return W_TIMESTAMP;
+        if ( CodeWScope.class.isAssignableFrom( c ) ) return W_CODE_W_SCOPE;
+        if ( Code.class.isAssignableFrom( c ) ) return W_CODE;
+        return W_SPECIAL;
+    }
+
+    static final int W_SPECIAL = 0;
+    static final int W_DATE = 1;
+    static final int W_NUMBER = 2;
+    static final int W_STRING = 3;
+    static final int W_OID = 4;
+    static final int W_OBJECT = 5;
+    static final int W_BOOLEAN = 6;
+    static final int W_PATTERN = 7;
+    static final int W_MAP = 8;
+    static final int W_ITERABLE = 9;
+    static final int W_BYTES = 10;
+    static final int W_BINARY = 11;
+    static final int W_UUID = 12;
+    static final int W_ARRAY = 13;
+    static final int W_SYMBOL = 14;
+    static final int W_TIMESTAMP = 15;
+    static final int W_CODE_W_SCOPE = 16;
+    static final int W_CODE = 17;
+    static final int W_NUMBER_LIST = 18;
+
+    private static final Map<Class,Integer> _writers = new ConcurrentHashMap<Class,Integer>();
+	
+    private void putArray( String name , Object array ) {
+        _put( ARRAY , name );
+        final int sizePos = _buf.getPosition();
+        _buf.writeInt( 0 );
+
+        // numbers are written straight from primitive arrays, unless a hook might want to see them
+        final Class c = array.getClass();
+        if ( c == int[].class && ! BSON.hasEncodingHooks() ){
+            final int[] a = (int[])array;
+            for ( int i = 0; i < a.length; i++ ){
+                _putIndex( NUMBER_INT , i );
+                _buf.writeInt( a[i] );
+            }
         }
-        else if (val instanceof Code) {
-            putCode( name , (Code)val );
+        else if ( c == long[].class && ! BSON.hasEncodingHooks() ){
+            final long[] a = (long[])array;
+            for ( int i = 0; i < a.length; i++ ){
+                _putIndex( NUMBER_LONG , i );
+                _buf.writeLong( a[i] );
+            }
         }
-        else if ( putSpecial( name , val ) ){
-            // no-op
+        else if ( c == double[].class && ! BSON.hasEncodingHooks() ){
+            final double[] a = (double[])array;
+            for ( int i = 0; i < a.length; i++ ){
+                _putIndex( NUMBER , i );
+                _buf.writeDouble( a[i] );
+            }
+        }
+        else if ( c == float[].class && ! BSON.hasEncodingHooks() ){
+            final float[] a = (float[])array;
+            for ( int i = 0; i < a.length; i++ ){
+                _putIndex( NUMBER , i );
+                _buf.writeDouble( a[i] );
+            }
         }
         else {
-            throw new IllegalArgumentException( "can't serialize " + val.getClass() );
+            int size = Array.getLength(array);
+            for ( int i = 0; i < size; i++ )
+                _putObjectField( String.valueOf( i ) , Array.get( array, i ) );
         }
-        
+
+        _buf.write( EOO );
+        _buf.writeInt( sizePos , _buf.getPosition() - sizePos ); 
     }
-	
-    private void putArray( String name , Object array ) {
+
+    private void putNumberList( String name , NumberList l ){
+        if ( ! l.isPrimitive() || BSON.hasEncodingHooks() ){
+            putObject( name , l );
+            return;
+        }
+
         _put( ARRAY , name );
         final int sizePos = _buf.getPosition();
         _buf.writeInt( 0 );
-                	        
-        int size = Array.getLength(array);
-        for ( int i = 0; i < size; i++ )
-            _putObjectField( String.valueOf( i ) , Array.get( array, i ) );
+
+        final int size = l.size();
+        switch ( l.getType() ){
+        case NUMBER_INT:
+            for ( int i = 0; i < size; i++ ){
+                _putIndex( NUMBER_INT , i );
+                _buf.writeInt( l.getInt( i ) );
+            }
+            break;
+        case NUMBER_LONG:
+            for ( int i = 0; i < size; i++ ){
+                _putIndex( NUMBER_LONG , i );
+                _buf.writeLong( l.getLong( i ) );
+            }
+            break;
+        default:
+            for ( int i = 0; i < size; i++ ){
+                _putIndex( NUMBER , i );
+                _buf.writeDouble( l.getDouble( i ) );
+            }
+        }
 
         _buf.write( EOO );
-        _buf.writeInt( sizePos , _buf.getPosition() - sizePos ); 
+        _buf.writeInt( sizePos , _buf.getPosition() - sizePos );
+    }
+
+    /**
+     * the type and array index key, without making a string for the index
+     */
+    private void _putIndex( byte type , int i ){
+        _buf.write( type );
+        int start = _digits.length;
+        do {
+            _digits[--start] = (byte)( '0' + i % 10 );
+            i /= 10;
+        } while ( i > 0 );
+        _buf.write( _digits , start , _digits.length - start );
+        _buf.write( (byte)0 );
     }
 	
     private void putIterable( String name , Iterable l ){
@@ -393,14 +530,20 @@ public class BSONEncoder {
     protected int _put( String str ){
 
         final int len = str.length();
-        int total = 0;
 
-        for ( int i=0; i<len; ){
+        // almost all keys and most values are ASCII, those are copied straight into the buffer
+        int i = _buf.writeAscii( str , 0 );
+        int total = i;
+
+        while ( i < len ){
             int c = Character.codePointAt( str , i );
 
             if ( c < 0x80 ){
-                _buf.write( (byte)c );
-                total += 1;
+                // back to ASCII after a multi byte character
+                int next = _buf.writeAscii( str , i );
+                total += next - i;
+                i = next;
+                continue;
             }
             else if ( c < 0x800 ){
                 _buf.write( (byte)(0xc0 + (c >> 6) ) );
@@ -442,5 +585,6 @@ public class BSONEncoder {
     }
 
     protected OutputBuffer _buf;
+    private final byte[] _digits = new byte[10];
 
 }
@@ -14,7 +14,7 @@ public class BasicBSONCallback implements BSONCallback {
     }
 
     public BSONObject create(){
-        return new BasicBSONObject();
+        return _compactObjects ? new CompactBSONObject() : new BasicBSONObject();
     }
 
     public BSONCallback createBSONCallback(){
@@ -24,6 +24,8 @@ public class BasicBSONCallback implements BSONCallback {
     public BSONObject create( boolean array , List<String> path ){
         if ( array )
             return new BasicBSONList();
+        if ( _compactObjects )
+            return new CompactBSONObject();
         return new BasicBSONObject();
     }
 
@@ -35,7 +37,7 @@ public class BasicBSONCallback implements BSONCallback {
     }
 
     public void objectStart(boolean array){
-        _root = create(array, null);
+        _root = array && _numberArrays ? new NumberList() : create(array, null);
         _stack.add( (BSONObject)_root );
     }
     
@@ -44,13 +46,16 @@ public class BasicBSONCallback implements BSONCallback {
     }
     
     public void objectStart(boolean array, String name){
+        BSONObject parent = cur();
         _nameStack.addLast( name );
-        BSONObject o = create( array , _nameStack );
-        _stack.getLast().put( name , o);
+        BSONObject o = array && _numberArrays ? new NumberList() : create( array , _nameStack );
+        parent.put( name , o);
         _stack.addLast( o );
     }
     
     public Object objectDone(){
+        if ( _stack.getLast() instanceof NumberList && ((NumberList)_stack.getLast()).size() == 0 )
+            cur(); // no type to keep, so a regular empty list
         BSONObject o =_stack.removeLast();
         if ( _nameStack.size() > 0 )
             _nameStack.removeLast();
@@ -91,15 +96,39 @@ public class BasicBSONCallback implements BSONCallback {
     }
     
     public void gotDouble( String name , double v ){
-        _put( name , v );
+        if ( _stack.getLast() instanceof NumberList && ! BSON.hasDecodingHooks() ){
+            NumberList l = (NumberList)_stack.getLast();
+            l.addDouble( v );
+            if ( ! l.isPrimitive() )
+                _unNumber( l );
+        }
+        else {
+            _put( name , v );
+        }
     }
     
     public void gotInt( String name , int v ){
-        _put( name , v );
+        if ( _stack.getLast() instanceof NumberList && ! BSON.hasDecodingHooks() ){
+            NumberList l = (NumberList)_stack.getLast();
+            l.addInt( v );
+            if ( ! l.isPrimitive() )
+                _unNumber( l );
+        }
+        else {
+            _put( name , v );
+        }
     }
     
     public void gotLong( String name , long v ){
-        _put( name , v );
+        if ( _stack.getLast() instanceof NumberList && ! BSON.hasDecodingHooks() ){
+            NumberList l = (NumberList)_stack.getLast();
+            l.addLong( v );
+            if ( ! l.isPrimitive() )
+                _unNumber( l );
+        }
+        else {
+            _put( name , v );
+        }
     }
 
     public void gotDate( String name , long millis ){
@@ -147,11 +176,42 @@ public class BasicBSONCallback implements BSONCallback {
     }
 
     protected void _put( String name , Object o ){
-        cur().put( name , BSON.applyDecodingHooks( o ) );
+        o = BSON.applyDecodingHooks( o );
+        if ( _stack.getLast() instanceof NumberList && ( o instanceof Integer || o instanceof Long || o instanceof Double ) ){
+            NumberList l = (NumberList)_stack.getLast();
+            l.add( o );
+            if ( ! l.isPrimitive() )
+                _unNumber( l );
+            return;
+        }
+        cur().put( name , o );
     }
     
+    /**
+     * The object being filled in.  If that's a {@link NumberList}, it's swapped for the regular list
+     * from {@link #create(boolean,List)} first, as anything put through here isn't one of its numbers.
+     */
     protected BSONObject cur(){
-        return _stack.getLast();
+        BSONObject o = _stack.getLast();
+        if ( o instanceof NumberList )
+            o = _unNumber( (NumberList)o );
+        return o;
+    }
+
+    /**
+     * swaps the list being filled for a regular one with the same elements
+     */
+    private BSONObject _unNumber( NumberList l ){
+        _stack.removeLast();
+        BSONObject o = create( true , _stack.size() == 0 ? null : _nameStack );
+        for ( int i=0; i<l.size(); i++ )
+            o.put( String.valueOf( i ) , l.get( i ) );
+        if ( _stack.size() == 0 )
+            _root = o;
+        else
+            _stack.getLast().put( _nameStack.getLast() , o );
+        _stack.addLast( o );
+        return o;
     }
     
     public Object get(){
@@ -166,6 +226,31 @@ public class BasicBSONCallback implements BSONCallback {
 	return _stack.size() < 1;
     }    
     
+    /**
+     * If true, arrays of just ints, just longs or just doubles are decoded into {@link NumberList}s,
+     * which keep them in a primitive array.  Any other array, including an empty one, is still the list
+     * from {@link #create(boolean,List)}.  Off by default.
+     */
+    public void setNumberArrays( boolean numberArrays ){
+        _numberArrays = numberArrays;
+    }
+
+    public boolean isNumberArrays(){
+        return _numberArrays;
+    }
+
+    /**
+     * If true, objects are decoded into {@link CompactBSONObject}s, which take less memory per field.
+     * Off by default.
+     */
+    public void setCompactObjects( boolean compactObjects ){
+        _compactObjects = compactObjects;
+    }
+
+    public boolean isCompactObjects(){
+        return _compactObjects;
+    }
+
     public void reset(){
         _root = null;
         _stack.clear();
@@ -173,6 +258,8 @@ public class BasicBSONCallback implements BSONCallback {
     }
 
     private Object _root;
+    private boolean _numberArrays = false;
+    private boolean _compactObjects = false;
     private final LinkedList<BSONObject> _stack = new LinkedList<BSONObject>();
     private final LinkedList<String> _nameStack = new LinkedList<String>();
 }
@@ -0,0 +1,439 @@
+// CompactBSONObject.java
+
+/**
+ *      Copyright (C) 2010 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.bson;
+
+import java.util.*;
+
+/**
+ * An insertion ordered <code>BSONObject</code> kept in parallel arrays of keys, key hashes and values,
+ * with no entry object per field like {@link BasicBSONObject}'s <code>LinkedHashMap</code>.
+ * Lookups scan the keys while there are at most {@link #SCAN_MAX} of them, and go through
+ * an open addressing index of positions above that.
+ * <p>
+ * Meant for the many small documents read from the database, see {@link BasicBSONCallback#setCompactObjects}.
+ * Removing a field is linear in the number of fields.
+ * </p>
+ */
+public class CompactBSONObject extends AbstractMap<String,Object> implements BSONObject {
+
+    /**
+     *  Creates an empty object.
+     */
+    public CompactBSONObject(){
+        this( 8 );
+    }
+
+    /**
+     * @param size expected number of fields
+     */
+    public CompactBSONObject( int size ){
+        size = Math.max( size , 1 );
+        _keys = new String[size];
+        _hashes = new int[size];
+        _values = new Object[size];
+    }
+
+    public CompactBSONObject( String key , Object value ){
+        this();
+        put( key , value );
+    }
+
+    public CompactBSONObject( Map m ){
+        this( m.size() );
+        putAll( m );
+    }
+
+    // ---- BSONObject
+
+    public Object get( String key ){
+        int i = _find( key );
+        return i < 0 ? null : _values[i];
+    }
+
+    public Object put( String key , Object val ){
+        if ( key == null )
+            throw new IllegalArgumentException( "key can't be null" );
+        int i = _find( key );
+        if ( i >= 0 ){
+            Object old = _values[i];
+            _values[i] = val;
+            return old;
+        }
+
+        if ( _size == _keys.length ){
+            int n = _size < 4 ? 8 : _size + ( _size >> 1 );
+            String[] keys = new String[n];
+            int[] hashes = new int[n];
+            Object[] values = new Object[n];
+            System.arraycopy( _keys , 0 , keys , 0 , _size );
+            System.arraycopy( _hashes , 0 , hashes , 0 , _size );
+            System.arraycopy( _values , 0 , values , 0 , _size );
+            _keys = keys;
+            _hashes = hashes;
+            _values = values;
+        }
+        _keys[_size] = key;
+        _hashes[_size] = key.hashCode();
+        _values[_size] = val;
+        _size++;
+        _modCount++;
+
+        if ( _index != null && _size * 2 <= _index.length )
+            _insert( _index , _hashes[_size-1] , _size - 1 );
+        else if ( _size > SCAN_MAX )
+            _reindex();
+        return null;
+    }
+
+    public void putAll( Map m ){
+        for ( Map.Entry entry : (Set<Map.Entry>)m.entrySet() )
+            put( entry.getKey().toString() , entry.getValue() );
+    }
+
+    public void putAll( BSONObject o ){
+        for ( String k : o.keySet() )
+            put( k , o.get( k ) );
+    }
+
+    public CompactBSONObject append( String key , Object val ){
+        put( key , val );
+        return this;
+    }
+
+    public Object removeField( String key ){
+        int i = _find( key );
+        if ( i < 0 )
+            return null;
+        return _removeAt( i );
+    }
+
+    public boolean containsField( String field ){
+        return _find( field ) >= 0;
+    }
+
+    /**
+     * @deprecated
+     */
+    public boolean containsKey( String key ){
+        return containsField( key );
+    }
+
+    public Map toMap(){
+        return new LinkedHashMap<String,Object>( this );
+    }
+
+    /** Returns the value of a field as an <code>int</code>.
+     * @param key the field to look for
+     * @return the field value
+     */
+    public int getInt( String key ){
+        Object o = get( key );
+        if ( o == null )
+            throw new NullPointerException( "no value for: " + key );
+        return BSON.toInt( o );
+    }
+
+    /** Returns the value of a field as an <code>int</code>.
+     * @param key the field to look for
+     * @param def the default to return
+     * @return the field value (or default)
+     */
+    public int getInt( String key , int def ){
+        Object o = get( key );
+        if ( o == null )
+            return def;
+        return BSON.toInt( o );
+    }
+
+    public long getLong( String key ){
+        return ((Number)get( key )).longValue();
+    }
+
+    public double getDouble( String key ){
+        return ((Number)get( key )).doubleValue();
+    }
+
+    public String getString( String key ){
+        Object o = get( key );
+        return o == null ? null : o.toString();
+    }
+
+    // ---- Map
+
+    public int size(){
+        return _size;
+    }
+
+    public Object get( Object key ){
+        return key instanceof String ? get( (String)key ) : null;
+    }
+
+    public boolean containsKey( Object key ){
+        return key instanceof String && _find( (String)key ) >= 0;
+    }
+
+    public Object remove( Object key ){
+        return key instanceof String ? removeField( (String)key ) : null;
+    }
+
+    public void clear(){
+        Arrays.fill( _keys , 0 , _size , null );
+        Arrays.fill( _values , 0 , _size , null );
+        _size = 0;
+        _index = null;
+        _modCount++;
+    }
+
+    public Set<String> keySet(){
+        return new AbstractSet<String>(){
+            public int size(){
+                return _size;
+            }
+            public boolean contains( Object o ){
+                return containsKey( o );
+            }
+            public Iterator<String> iterator(){
+                return new Itr<String>(){
+                    String _next( int i ){
+                        return _keys[i];
+                    }
+                };
+            }
+        };
+    }
+
+    public Set<Map.Entry<String,Object>> entrySet(){
+        return new AbstractSet<Map.Entry<String,Object>>(){
+            public int size(){
+                return _size;
+            }
+            public Iterator<Map.Entry<String,Object>> iterator(){
+                return new Itr<Map.Entry<String,Object>>(){
+                    Map.Entry<String,Object> _next( int i ){
+                        return new Entry( i );
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * same rules as {@link BasicBSONObject#equals}, numbers are compared as doubles
+     */
+    public boolean equals( Object o ){
+        if ( ! ( o instanceof BSONObject ) )
+            return false;
+
+        BSONObject other = (BSONObject)o;
+        if ( ! keySet().equals( other.keySet() ) )
+            return false;
+
+        for ( int i=0; i<_size; i++ ){
+            Object a = _values[i];
+            Object b = other.get( _keys[i] );
+            if ( a == null || b == null ){
+                if ( a != b )
+                    return false;
+            }
+            else if ( a instanceof Number && b instanceof Number ){
+                if ( ((Number)a).doubleValue() != ((Number)b).doubleValue() )
+                    return false;
+            }
+            else if ( ! a.equals( b ) ){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int hashCode(){
+        return super.hashCode();
+    }
+
+    /** Returns a JSON serialization of this object
+     * @return JSON serialization
+     */
+    public String toString(){
+        return com.mongodb.util.JSON.serialize( this );
+    }
+
+    // ---- internal
+
+    private int _find( String key ){
+        if ( key == null )
+            return -1;
+
+        // string hashes are cached, so comparing them first is cheap, and decoded keys are often the very same strings
+        final int h = key.hashCode();
+        final int[] index = _index;
+        if ( index == null ){
+            for ( int i=0; i<_size; i++ ){
+                if ( _hashes[i] != h )
+                    continue;
+                final String k = _keys[i];
+                if ( k == key || k.equals( key ) )
+                    return i;
+            }
+            return -1;
+        }
+
+        final int mask = index.length - 1;
+        int slot = _spread( h ) & mask;
+        while ( true ){
+            final int p = index[slot];
+            if ( p == 0 )
+                return -1;
+            final String k = _keys[p-1];
+            if ( _hashes[p-1] == h && ( k == key || k.equals( key ) ) )
+                return p - 1;
+            slot = ( slot + 1 ) & mask;
+        }
+    }
+
+    private Object _removeAt( int i ){
+        Object old = _values[i];
+        final int move = _size - i - 1;
+        if ( move > 0 ){
+            System.arraycopy( _keys , i + 1 , _keys , i , move );
+            System.arraycopy( _hashes , i + 1 , _hashes , i , move );
+            System.arraycopy( _values , i + 1 , _values , i , move );
+        }
+        _size--;
+        _keys[_size] = null;
+        _values[_size] = null;
+        _modCount++;
+
+        // positions after i moved, so the index has to be rebuilt
+        if ( _size > SCAN_MAX )
+            _reindex();
+        else
+            _index = null;
+        return old;
+    }
+
+    /**
+     * builds an index at most half full, with room to grow before the next rebuild
+     */
+    private void _reindex(){
+        int cap = 32;
+        while ( cap < _size * 3 )
+            cap <<= 1;
+        int[] index = new int[cap];
+        for ( int i=0; i<_size; i++ )
+            _insert( index , _hashes[i] , i );
+        _index = index;
+    }
+
+    private static void _insert( int[] index , int hash , int pos ){
+        final int mask = index.length - 1;
+        int slot = _spread( hash ) & mask;
+        while ( index[slot] != 0 )
+            slot = ( slot + 1 ) & mask;
+        index[slot] = pos + 1;
+    }
+
+    private static int _spread( int h ){
+        return h ^ ( h >>> 16 );
+    }
+
+    abstract class Itr<T> implements Iterator<T> {
+        public boolean hasNext(){
+            return _pos < _size;
+        }
+
+        public T next(){
+            if ( _expected != _modCount )
+                throw new ConcurrentModificationException();
+            if ( _pos >= _size )
+                throw new NoSuchElementException();
+            _last = _pos++;
+            return _next( _last );
+        }
+
+        public void remove(){
+            if ( _last < 0 )
+                throw new IllegalStateException();
+            if ( _expected != _modCount )
+                throw new ConcurrentModificationException();
+            _removeAt( _last );
+            _pos = _last;
+            _last = -1;
+            _expected = _modCount;
+        }
+
+        abstract T _next( int i );
+
+        int _pos = 0;
+        int _last = -1;
+        int _expected = _modCount;
+    }
+
+    class Entry implements Map.Entry<String,Object> {
+        Entry( int i ){
+            _i = i;
+            _key = _keys[i];
+        }
+
+        public String getKey(){
+            return _key;
+        }
+
+        public Object getValue(){
+            return _values[_i];
+        }
+
+        public Object setValue( Object v ){
+            Object old = _values[_i];
+            _values[_i] = v;
+            return old;
+        }
+
+        public boolean equals( Object o ){
+            if ( ! ( o instanceof Map.Entry ) )
+                return false;
+            Map.Entry e = (Map.Entry)o;
+            Object v = getValue();
+            return _key.equals( e.getKey() ) && ( v == null ? e.getValue() == null : v.equals( e.getValue() ) );
+        }
+
+        public int hashCode(){
+            Object v = getValue();
+            return _key.hashCode() ^ ( v == null ? 0 : v.hashCode() );
+        }
+
+        public String toString(){
+            return _key + "=" + getValue();
+        }
+
+        final int _i;
+        final String _key;
+    }
+
+    /**
+     * up to this many fields lookups just scan the keys
+     */
+    public static final int SCAN_MAX = 16;
+
+    private String[] _keys;
+    private int[] _hashes;
+    private Object[] _values;
+    private int _size = 0;
+    private int[] _index;
+    private int _modCount = 0;
+}
@@ -0,0 +1,417 @@
+// LazyBSONObject.java
+
+/**
+ *      Copyright (C) 2010 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.bson;
+
+import static org.bson.BSON.*;
+
+import java.io.*;
+import java.util.*;
+
+import org.bson.io.*;
+import org.bson.types.*;
+
+/**
+ * A <code>BSONObject</code> that keeps the encoded document and decodes fields when they're read.
+ * The first access walks the document once to index where each field starts; after that a
+ * <code>get</code> decodes just that value (and keeps it).  Embedded objects are lazy too, sharing the same bytes.
+ *
+ * <p>As long as it isn't changed, {@link BSONEncoder} writes the original bytes back verbatim.
+ * The first <code>put</code> or <code>removeField</code> decodes everything into a regular object
+ * that all later calls go to.  Once a value that can be changed in place (a list, a date, a byte array...)
+ * has been handed out by <code>get</code>, the object counts as changed too, since there's no telling
+ * whether the caller changed it.  Embedded lazy objects count as changed if they are.</p>
+ */
+public class LazyBSONObject implements BSONObject {
+
+    /**
+     * @param data holds a whole BSON document
+     */
+    public LazyBSONObject( byte[] data ){
+        this( data , 0 );
+    }
+
+    /**
+     * @param data holds a BSON document starting at <code>offset</code>
+     */
+    public LazyBSONObject( byte[] data , int offset ){
+        _data = data;
+        _offset = offset;
+        _size = Bits.readInt( data , offset );
+        if ( _size < 5 || offset + _size > data.length )
+            throw new IllegalArgumentException( "bad BSON object size: " + _size );
+    }
+
+    public Object get( String key ){
+        if ( _changed != null )
+            return _changed.get( key );
+        int i = _find( key );
+        if ( i < 0 )
+            return null;
+        return _get( i );
+    }
+
+    public boolean containsField( String s ){
+        if ( _changed != null )
+            return _changed.containsField( s );
+        return _find( s ) >= 0;
+    }
+
+    /**
+     * @deprecated
+     */
+    public boolean containsKey( String s ){
+        return containsField( s );
+    }
+
+    public Set<String> keySet(){
+        if ( _changed != null )
+            return _changed.keySet();
+        _index();
+        return new LinkedHashSet<String>( Arrays.asList( _names ) );
+    }
+
+    public Map toMap(){
+        if ( _changed != null )
+            return _changed.toMap();
+        _index();
+        Map m = new LinkedHashMap();
+        for ( int i=0; i<_names.length; i++ )
+            m.put( _names[i] , _get( i ) );
+        return m;
+    }
+
+    public Object put( String key , Object v ){
+        return _materialize().put( key , v );
+    }
+
+    public void putAll( BSONObject o ){
+        _materialize().putAll( o );
+    }
+
+    public void putAll( Map m ){
+        _materialize().putAll( m );
+    }
+
+    public Object removeField( String key ){
+        return _materialize().removeField( key );
+    }
+
+    /**
+     * @return true if changed since decoded, or a mutable value was handed out, so the original bytes
+     *         can't be trusted anymore
+     */
+    public boolean isChanged(){
+        if ( _changed != null )
+            return true;
+
+        final Object[] values = _values;
+        if ( values == null )
+            return false;
+        for ( Object v : values ){
+            if ( v == NOT_DECODED || v == null )
+                continue;
+            if ( v instanceof LazyBSONObject ){
+                if ( ((LazyBSONObject)v).isChanged() )
+                    return true;
+            }
+            else if ( ! _immutable( v ) ){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return size of the encoded document
+     */
+    public int getBSONSize(){
+        return _size;
+    }
+
+    /**
+     * Writes the original bytes.
+     * @throws IllegalStateException if changed
+     */
+    public void pipe( OutputBuffer out ){
+        if ( isChanged() )
+            throw new IllegalStateException( "object was changed" );
+        out.write( _data , _offset , _size );
+    }
+
+    public String toString(){
+        return com.mongodb.util.JSON.serialize( this );
+    }
+
+    // ---- for subclasses
+
+    /**
+     * @return an empty object of the type that a change turns this into
+     */
+    protected BSONObject _newObject(){
+        return new BasicBSONObject();
+    }
+
+    /**
+     * @return the callback values other than plain scalars and embedded objects are decoded with
+     */
+    protected BSONCallback _newCallback(){
+        return new BasicBSONCallback();
+    }
+
+    /**
+     * @return the lazy object for a document embedded at <code>offset</code>
+     */
+    protected LazyBSONObject _newEmbedded( int offset ){
+        return new LazyBSONObject( _data , offset );
+    }
+
+    /**
+     * decodes field <code>i</code>: scalars are read in place, embedded objects are lazy, anything else
+     * goes through a {@link BSONDecoder} and the callback from {@link #_newCallback}
+     */
+    protected Object _decode( int i ){
+        final int pos = _valueStarts[i];
+        switch ( _types[i] ){
+        case NULL:
+        case UNDEFINED:
+            return null;
+        case BOOLEAN:
+            return _data[pos] > 0;
+        case NUMBER:
+            return Double.longBitsToDouble( Bits.readLong( _data , pos ) );
+        case NUMBER_INT:
+            return Bits.readInt( _data , pos );
+        case NUMBER_LONG:
+            return Bits.readLong( _data , pos );
+        case DATE:
+            return new Date( Bits.readLong( _data , pos ) );
+        case STRING:
+            return _string( pos + 4 , Bits.readInt( _data , pos ) - 1 );
+        case OID:
+            return new ObjectId( Bits.readInt( _data , pos ) , Bits.readInt( _data , pos + 4 ) , Bits.readInt( _data , pos + 8 ) );
+        case OBJECT:
+            return _newEmbedded( pos );
+        }
+        return _decodeElement( i );
+    }
+
+    /**
+     * decodes field <code>i</code> the slow way, as the only field of a one field document
+     */
+    protected Object _decodeElement( int i ){
+        final int len = _ends[i] - _starts[i];
+        byte[] doc = new byte[ 4 + len + 1 ];
+        doc[0] = (byte)( doc.length & 0xFF );
+        doc[1] = (byte)( ( doc.length >> 8 ) & 0xFF );
+        doc[2] = (byte)( ( doc.length >> 16 ) & 0xFF );
+        doc[3] = (byte)( ( doc.length >> 24 ) & 0xFF );
+        System.arraycopy( _data , _starts[i] , doc , 4 , len );
+        doc[ doc.length - 1 ] = EOO;
+
+        BSONCallback c = _newCallback();
+        new BSONDecoder().decode( doc , c );
+        return ((BSONObject)c.get()).get( _names[i] );
+    }
+
+    /**
+     * @return the encoded document, shared
+     */
+    protected byte[] _data(){
+        return _data;
+    }
+
+    protected int _offset(){
+        return _offset;
+    }
+
+    // ---- internal
+
+    private Object _get( int i ){
+        Object v = _values[i];
+        if ( v == NOT_DECODED ){
+            v = _decode( i );
+            _values[i] = v;
+        }
+        return v;
+    }
+
+    /**
+     * @return true for values nobody can change in place
+     */
+    static boolean _immutable( Object v ){
+        final Class c = v.getClass();
+        return c == String.class || c == Integer.class || c == Long.class || c == Double.class ||
+            c == Boolean.class || c == ObjectId.class || c == Symbol.class || c == Code.class ||
+            c == BSONTimestamp.class || c == java.util.regex.Pattern.class || c == UUID.class;
+    }
+
+    private BSONObject _materialize(){
+        if ( _changed == null ){
+            BSONObject o = _newObject();
+            _index();
+            for ( int i=0; i<_names.length; i++ ){
+                Object v = _get( i );
+                if ( v instanceof LazyBSONObject )
+                    v = ((LazyBSONObject)v)._materialize();
+                o.put( _names[i] , v );
+            }
+            _changed = o;
+        }
+        return _changed;
+    }
+
+    private int _find( String key ){
+        _index();
+        if ( _positions != null ){
+            Integer i = _positions.get( key );
+            return i == null ? -1 : i;
+        }
+        for ( int i=0; i<_names.length; i++ )
+            if ( _names[i].equals( key ) )
+                return i;
+        return -1;
+    }
+
+    /**
+     * walks the document once, recording where each field and its value start
+     */
+    private synchronized void _index(){
+        if ( _names != null )
+            return;
+
+        List<String> names = new ArrayList<String>();
+        List<int[]> spots = new ArrayList<int[]>();
+        List<Byte> types = new ArrayList<Byte>();
+
+        final int end = _offset + _size - 1;
+        int pos = _offset + 4;
+        while ( pos < end ){
+            final int start = pos;
+            final byte type = _data[pos++];
+            if ( type == EOO )
+                break;
+
+            int nameEnd = pos;
+            while ( _data[nameEnd] != 0 )
+                nameEnd++;
+            names.add( _string( pos , nameEnd - pos ) );
+            pos = nameEnd + 1;
+
+            final int valueStart = pos;
+            pos += _valueSize( type , pos );
+            if ( pos > end )
+                throw new IllegalArgumentException( "bad BSON data, field " + names.get( names.size() - 1 ) + " runs past the end" );
+
+            spots.add( new int[]{ start , valueStart , pos } );
+            types.add( type );
+        }
+
+        final int n = names.size();
+        _starts = new int[n];
+        _valueStarts = new int[n];
+        _ends = new int[n];
+        _types = new byte[n];
+        _values = new Object[n];
+        for ( int i=0; i<n; i++ ){
+            int[] s = spots.get( i );
+            _starts[i] = s[0];
+            _valueStarts[i] = s[1];
+            _ends[i] = s[2];
+            _types[i] = types.get( i );
+            _values[i] = NOT_DECODED;
+        }
+
+        if ( n > LINEAR_FIND ){
+            Map<String,Integer> positions = new HashMap<String,Integer>( n * 2 );
+            for ( int i=n-1; i>=0; i-- )
+                positions.put( names.get( i ) , i );
+            _positions = positions;
+        }
+
+        _names = names.toArray( new String[n] );
+    }
+
+    private int _valueSize( byte type , int pos ){
+        switch ( type ){
+        case NULL:
+        case UNDEFINED:
+        case MAXKEY:
+        case MINKEY:
+            return 0;
+        case BOOLEAN:
+            return 1;
+        case NUMBER_INT:
+            return 4;
+        case NUMBER:
+        case NUMBER_LONG:
+        case DATE:
+        case TIMESTAMP:
+            return 8;
+        case OID:
+            return 12;
+        case STRING:
+        case SYMBOL:
+        case CODE:
+            return 4 + Bits.readInt( _data , pos );
+        case REF:
+            return 4 + Bits.readInt( _data , pos ) + 12;
+        case OBJECT:
+        case ARRAY:
+        case CODE_W_SCOPE:
+            return Bits.readInt( _data , pos );
+        case BINARY:
+            return 4 + 1 + Bits.readInt( _data , pos );
+        case REGEX:
+            int p = pos;
+            while ( _data[p] != 0 )
+                p++;
+            p++;
+            while ( _data[p] != 0 )
+                p++;
+            return p + 1 - pos;
+        }
+        throw new IllegalArgumentException( "can't size BSON type " + type );
+    }
+
+    private String _string( int pos , int len ){
+        try {
+            return new String( _data , pos , len , "UTF-8" );
+        }
+        catch ( UnsupportedEncodingException uee ){
+            throw new RuntimeException( "impossible" , uee );
+        }
+    }
+
+    static final int LINEAR_FIND = 8;
+    static final Object NOT_DECODED = new Object();
+
+    final byte[] _data;
+    final int _offset;
+    final int _size;
+
+    private volatile String[] _names;
+    private int[] _starts;
+    private int[] _valueStarts;
+    private int[] _ends;
+    private byte[] _types;
+    private Object[] _values;
+    private Map<String,Integer> _positions;
+
+    private BSONObject _changed;
+}
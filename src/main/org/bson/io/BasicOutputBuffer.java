@@ -22,6 +22,23 @@ public class BasicOutputBuffer extends OutputBuffer {
         _size = Math.max( _cur , _size );
     }
     
+    public int writeAscii( String str , int from ){
+        final int len = str.length();
+        _ensure( len - from );
+        final byte[] buf = _buffer;
+        int pos = _cur;
+        int i = from;
+        for ( ; i<len; i++ ){
+            char c = str.charAt( i );
+            if ( c >= 0x80 )
+                break;
+            buf[pos++] = (byte)c;
+        }
+        _cur = pos;
+        _size = Math.max( _cur , _size );
+        return i;
+    }
+
     public int getPosition(){
         return _cur;
     }
@@ -29,10 +29,15 @@ public class Bits {
     }
 
     public static void readFully( InputStream in, byte[] b , int l )
+        throws IOException {
+        readFully( in , b , 0 , l );
+    }
+
+    public static void readFully( InputStream in, byte[] b , int off , int l )
         throws IOException {
         int x = 0;
         while ( x<l ){
-            int temp = in.read( b , x , l - x );
+            int temp = in.read( b , off + x , l - x );
             if ( temp < 0 )
                 throw new EOFException();
             x += temp;
@@ -0,0 +1,124 @@
+// DirectBufferPool.java
+
+/**
+ *      Copyright (C) 2010 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.bson.io;
+
+import java.nio.*;
+import java.util.*;
+
+/**
+ * Fixed size direct <code>ByteBuffer</code> chunks for {@link DirectOutputBuffer}.
+ * Direct memory is only freed when the buffer is garbage collected, so chunks are kept and reused,
+ * and no more than the budget is ever allocated off-heap.  Past the budget, chunks are plain heap buffers
+ * that aren't kept.  Only buffers this pool allocated are taken back, each at most once.
+ */
+public class DirectBufferPool {
+
+    /**
+     * The budget is the system property <code>BSON.DIRECT_BUDGET</code>, in bytes, 16mb if not set.
+     */
+    public static final DirectBufferPool DEFAULT =
+        new DirectBufferPool( PoolOutputBuffer.BUF_SIZE , Long.parseLong( System.getProperty( "BSON.DIRECT_BUDGET" , String.valueOf( 16 * 1024 * 1024 ) ) ) );
+
+    /**
+     * @param chunkSize size of each buffer
+     * @param maxBytes most direct memory to allocate
+     */
+    public DirectBufferPool( int chunkSize , long maxBytes ){
+        if ( chunkSize < 16 )
+            throw new IllegalArgumentException( "chunk size has to be >= 16" );
+        if ( maxBytes < 0 )
+            throw new IllegalArgumentException( "budget can't be negative" );
+        _chunkSize = chunkSize;
+        _maxBytes = maxBytes;
+    }
+
+    /**
+     * @return a cleared, little endian buffer of {@link #getChunkSize} bytes, direct while in budget
+     */
+    public ByteBuffer get(){
+        ByteBuffer b = _take();
+        if ( b == null )
+            b = ByteBuffer.allocate( _chunkSize );
+        b.clear();
+        b.order( ByteOrder.LITTLE_ENDIAN );
+        return b;
+    }
+
+    /**
+     * Gives a buffer from {@link #get} back.  Heap buffers, buffers from elsewhere
+     * and buffers already given back are ignored.
+     */
+    public synchronized void done( ByteBuffer b ){
+        if ( ! Boolean.FALSE.equals( _owned.get( b ) ) )
+            return;
+        _owned.put( b , Boolean.TRUE );
+        _free.add( b );
+    }
+
+    public int getChunkSize(){
+        return _chunkSize;
+    }
+
+    /**
+     * @return the off-heap budget, in bytes
+     */
+    public long getMaxBytes(){
+        return _maxBytes;
+    }
+
+    /**
+     * @return direct memory allocated so far, in bytes
+     */
+    public synchronized long getAllocated(){
+        return _allocated;
+    }
+
+    /**
+     * @return number of heap chunks handed out because the budget was used up
+     */
+    public synchronized long getNumHeap(){
+        return _numHeap;
+    }
+
+    /**
+     * @return a free or new direct buffer, null (counted) when over budget
+     */
+    private synchronized ByteBuffer _take(){
+        ByteBuffer b = _free.poll();
+        if ( b == null ){
+            if ( _allocated + _chunkSize > _maxBytes ){
+                _numHeap++;
+                return null;
+            }
+            _allocated += _chunkSize;
+            b = ByteBuffer.allocateDirect( _chunkSize );
+        }
+        _owned.put( b , Boolean.FALSE );
+        return b;
+    }
+
+    final int _chunkSize;
+    final long _maxBytes;
+
+    private long _allocated = 0;
+    private long _numHeap = 0;
+    private final Queue<ByteBuffer> _free = new LinkedList<ByteBuffer>();
+    // every direct buffer allocated, true while it's free.  by identity, ByteBuffer.equals compares contents
+    private final Map<ByteBuffer,Boolean> _owned = new IdentityHashMap<ByteBuffer,Boolean>();
+}
@@ -0,0 +1,231 @@
+// DirectOutputBuffer.java
+
+/**
+ *      Copyright (C) 2010 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.bson.io;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+
+/**
+ * An <code>OutputBuffer</code> over direct <code>ByteBuffer</code> chunks from a {@link DirectBufferPool},
+ * so a {@link org.bson.BSONEncoder} writes straight into memory a channel can send without copying it
+ * onto the heap first:
+ * <blockquote><pre>
+ * DirectOutputBuffer buf = new DirectOutputBuffer();
+ * encoder.set( buf );
+ * encoder.putObject( o );
+ * encoder.done();
+ * buf.pipe( socketChannel );
+ * buf.reset(); // gives the chunks back
+ * </pre></blockquote>
+ * Call {@link #reset} when done with it, or the chunks aren't reused.
+ */
+public class DirectOutputBuffer extends OutputBuffer {
+
+    public DirectOutputBuffer(){
+        this( DirectBufferPool.DEFAULT );
+    }
+
+    public DirectOutputBuffer( DirectBufferPool pool ){
+        _pool = pool;
+        _chunkSize = pool.getChunkSize();
+    }
+
+    /**
+     * Empties this, giving the chunks back to the pool.
+     */
+    public void reset(){
+        for ( ByteBuffer b : _chunks )
+            _pool.done( b );
+        _chunks.clear();
+        _cur = 0;
+        _size = 0;
+    }
+
+    public void write( byte[] b ){
+        write( b , 0 , b.length );
+    }
+
+    public void write( byte[] b , int off , int len ){
+        while ( len > 0 ){
+            final ByteBuffer bb = _chunk();
+            final int pos = _cur % _chunkSize;
+            final int n = Math.min( _chunkSize - pos , len );
+            bb.position( pos );
+            bb.put( b , off , n );
+            _moved( n );
+            off += n;
+            len -= n;
+        }
+    }
+
+    public void write( int b ){
+        _chunk().put( _cur % _chunkSize , (byte)b );
+        _moved( 1 );
+    }
+
+    public void writeInt( int x ){
+        final int pos = _cur % _chunkSize;
+        if ( pos + 4 > _chunkSize ){
+            super.writeInt( x );
+            return;
+        }
+        _chunk().putInt( pos , x );
+        _moved( 4 );
+    }
+
+    public void writeLong( long x ){
+        final int pos = _cur % _chunkSize;
+        if ( pos + 8 > _chunkSize ){
+            super.writeLong( x );
+            return;
+        }
+        _chunk().putLong( pos , x );
+        _moved( 8 );
+    }
+
+    public int writeAscii( String str , int from ){
+        final int len = str.length();
+        int i = from;
+        while ( i < len ){
+            final ByteBuffer bb = _chunk();
+            final int start = _cur % _chunkSize;
+            final int stop = i + Math.min( _chunkSize - start , len - i );
+            int pos = start;
+            for ( ; i<stop; i++ ){
+                char c = str.charAt( i );
+                if ( c >= 0x80 )
+                    break;
+                bb.put( pos++ , (byte)c );
+            }
+            if ( pos == start )
+                break;
+            _moved( pos - start );
+            if ( i < stop )
+                break;
+        }
+        return i;
+    }
+
+    public int getPosition(){
+        return _cur;
+    }
+
+    public void setPosition( int position ){
+        if ( position < 0 || position > _size )
+            throw new IllegalArgumentException( "bad position: " + position + " size: " + _size );
+        _cur = position;
+    }
+
+    public void seekEnd(){
+        _cur = _size;
+    }
+
+    public void seekStart(){
+        _cur = 0;
+    }
+
+    public int size(){
+        return _size;
+    }
+
+    /**
+     * copies through a heap array, {@link #pipe(WritableByteChannel)} doesn't
+     */
+    public int pipe( OutputStream out )
+        throws IOException {
+        if ( out == null )
+            throw new NullPointerException( "out is null" );
+
+        byte[] tmp = new byte[ Math.min( _chunkSize , Math.max( _size , 1 ) ) ];
+        for ( ByteBuffer b : asByteBuffers() ){
+            while ( b.hasRemaining() ){
+                int n = Math.min( tmp.length , b.remaining() );
+                b.get( tmp , 0 , n );
+                out.write( tmp , 0 , n );
+            }
+        }
+        return _size;
+    }
+
+    /**
+     * Writes everything to <code>out</code>, with one gathering write when the channel supports it.
+     * @return bytes written
+     */
+    public int pipe( WritableByteChannel out )
+        throws IOException {
+        ByteBuffer[] all = asByteBuffers();
+        if ( out instanceof GatheringByteChannel ){
+            long left = _size;
+            int first = 0;
+            while ( left > 0 ){
+                while ( ! all[first].hasRemaining() )
+                    first++;
+                left -= ((GatheringByteChannel)out).write( all , first , all.length - first );
+            }
+        }
+        else {
+            for ( ByteBuffer b : all )
+                while ( b.hasRemaining() )
+                    out.write( b );
+        }
+        return _size;
+    }
+
+    /**
+     * @return the contents as read-only views of the chunks, ready to read.  They share memory with this buffer,
+     *         so they're only good until it's written to or reset.
+     */
+    public ByteBuffer[] asByteBuffers(){
+        final int n = ( _size + _chunkSize - 1 ) / _chunkSize;
+        ByteBuffer[] all = new ByteBuffer[n];
+        for ( int i=0; i<n; i++ ){
+            ByteBuffer b = _chunks.get( i ).asReadOnlyBuffer();
+            b.order( ByteOrder.LITTLE_ENDIAN ); // views start out big endian
+            b.clear();
+            b.limit( i < n - 1 ? _chunkSize : _size - ( i * _chunkSize ) );
+            all[i] = b;
+        }
+        return all;
+    }
+
+    /**
+     * the chunk the current position is in, getting another from the pool when at the end
+     */
+    private ByteBuffer _chunk(){
+        final int which = _cur / _chunkSize;
+        while ( which >= _chunks.size() )
+            _chunks.add( _pool.get() );
+        return _chunks.get( which );
+    }
+
+    private void _moved( int n ){
+        _cur += n;
+        if ( _cur > _size )
+            _size = _cur;
+    }
+
+    final DirectBufferPool _pool;
+    final int _chunkSize;
+
+    private final List<ByteBuffer> _chunks = new ArrayList<ByteBuffer>();
+    private int _cur = 0;
+    private int _size = 0;
+}
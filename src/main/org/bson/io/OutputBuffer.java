@@ -101,6 +101,23 @@ public abstract class OutputBuffer {
         return com.mongodb.util.Util.toHex( md5.digest() );
     }
     
+    /**
+     * Writes the leading ASCII characters of <code>str</code>, starting at <code>from</code>, one byte each,
+     * stopping at the first character that isn't.
+     * @return index of the first character not written
+     */
+    public int writeAscii( String str , int from ){
+        final int len = str.length();
+        int i = from;
+        for ( ; i<len; i++ ){
+            char c = str.charAt( i );
+            if ( c >= 0x80 )
+                break;
+            write( c );
+        }
+        return i;
+    }
+
     public void writeInt( int x ){
         write( x >> 0 );
         write( x >> 8 );
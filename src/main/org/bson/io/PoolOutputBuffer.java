@@ -69,6 +69,33 @@ public class PoolOutputBuffer extends OutputBuffer {
         _afterWrite();
     }
     
+    /**
+     * copies straight into the current chunk, a chunk at a time
+     */
+    public int writeAscii( String str , int from ){
+        final int len = str.length();
+        int i = from;
+        while ( i < len ){
+            final byte[] bs = _cur();
+            final int start = _cur.y;
+            final int stop = i + Math.min( bs.length - start , len - i );
+            int pos = start;
+            for ( ; i<stop; i++ ){
+                char c = str.charAt( i );
+                if ( c >= 0x80 )
+                    break;
+                bs[pos++] = (byte)c;
+            }
+            if ( pos == start )
+                break;
+            _cur.inc( pos - start );
+            _afterWrite();
+            if ( i < stop )
+                break;
+        }
+        return i;
+    }
+
     void _afterWrite(){
         
         if ( _cur.pos() < _end.pos() ){
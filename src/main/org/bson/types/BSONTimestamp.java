@@ -56,6 +56,17 @@ public class BSONTimestamp {
     public String toString(){
         return "TS time:" + _time + " inc:" + _inc;
     }
+
+    public boolean equals( Object o ){
+        if ( ! ( o instanceof BSONTimestamp ) )
+            return false;
+        BSONTimestamp other = (BSONTimestamp)o;
+        return getTime() == other.getTime() && getInc() == other.getInc();
+    }
+
+    public int hashCode(){
+        return 31 * getTime() + getInc();
+    }
     
     final int _inc;
     final Date _time;
@@ -0,0 +1,401 @@
+// NumberList.java
+
+/**
+ *      Copyright (C) 2010 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.bson.types;
+
+import static org.bson.BSON.*;
+
+import java.util.*;
+
+import com.mongodb.util.StringRangeSet;
+
+import org.bson.*;
+
+/**
+ * A BSON array kept in an <code>int[]</code>, <code>long[]</code> or <code>double[]</code> while all its
+ * elements are of that one type, e.g. coordinates or vectors.  That's 4 or 8 bytes an element rather than
+ * a boxed number each.  Adding anything else (a different type, a <code>null</code>) switches it to
+ * a regular list of objects.
+ * <p>
+ * Reads through <code>List</code> box the element; {@link #getInt}, {@link #getLong}, {@link #getDouble}
+ * and the <code>to...Array</code> methods don't.  {@link BSONEncoder} writes the values straight from the array.
+ * Decoded arrays of one type of number come back as these with {@link BasicBSONCallback#setNumberArrays}.
+ * </p>
+ */
+public class NumberList extends AbstractList<Object> implements BSONObject {
+
+    public NumberList(){
+    }
+
+    /**
+     * @param values used directly, not copied
+     */
+    public NumberList( int[] values ){
+        _type = NUMBER_INT;
+        _ints = values;
+        _size = values.length;
+    }
+
+    /**
+     * @param values used directly, not copied
+     */
+    public NumberList( long[] values ){
+        _type = NUMBER_LONG;
+        _longs = values;
+        _size = values.length;
+    }
+
+    /**
+     * @param values used directly, not copied
+     */
+    public NumberList( double[] values ){
+        _type = NUMBER;
+        _doubles = values;
+        _size = values.length;
+    }
+
+    /**
+     * @return {@link BSON#NUMBER_INT}, {@link BSON#NUMBER_LONG} or {@link BSON#NUMBER} if the elements are
+     *         kept in a primitive array, otherwise 0
+     */
+    public byte getType(){
+        return _type;
+    }
+
+    public boolean isPrimitive(){
+        return _type != 0;
+    }
+
+    public void addInt( int v ){
+        if ( _start( NUMBER_INT ) ){
+            _grow();
+            _ints[_size++] = v;
+            modCount++;
+        }
+        else {
+            add( (Object)v );
+        }
+    }
+
+    public void addLong( long v ){
+        if ( _start( NUMBER_LONG ) ){
+            _grow();
+            _longs[_size++] = v;
+            modCount++;
+        }
+        else {
+            add( (Object)v );
+        }
+    }
+
+    public void addDouble( double v ){
+        if ( _start( NUMBER ) ){
+            _grow();
+            _doubles[_size++] = v;
+            modCount++;
+        }
+        else {
+            add( (Object)v );
+        }
+    }
+
+    public int getInt( int i ){
+        _check( i );
+        if ( _type == NUMBER_INT )
+            return _ints[i];
+        return ((Number)get( i )).intValue();
+    }
+
+    public long getLong( int i ){
+        _check( i );
+        if ( _type == NUMBER_LONG )
+            return _longs[i];
+        if ( _type == NUMBER_INT )
+            return _ints[i];
+        return ((Number)get( i )).longValue();
+    }
+
+    public double getDouble( int i ){
+        _check( i );
+        if ( _type == NUMBER )
+            return _doubles[i];
+        if ( _type == NUMBER_INT )
+            return _ints[i];
+        if ( _type == NUMBER_LONG )
+            return _longs[i];
+        return ((Number)get( i )).doubleValue();
+    }
+
+    /**
+     * @return a copy of the elements
+     * @throws IllegalStateException if they aren't kept as ints
+     */
+    public int[] toIntArray(){
+        if ( _type != NUMBER_INT )
+            throw new IllegalStateException( "not an int array" );
+        int[] a = new int[_size];
+        System.arraycopy( _ints , 0 , a , 0 , _size );
+        return a;
+    }
+
+    /**
+     * @return a copy of the elements
+     * @throws IllegalStateException if they aren't kept as longs
+     */
+    public long[] toLongArray(){
+        if ( _type != NUMBER_LONG )
+            throw new IllegalStateException( "not a long array" );
+        long[] a = new long[_size];
+        System.arraycopy( _longs , 0 , a , 0 , _size );
+        return a;
+    }
+
+    /**
+     * @return a copy of the elements
+     * @throws IllegalStateException if they aren't kept as doubles
+     */
+    public double[] toDoubleArray(){
+        if ( _type != NUMBER )
+            throw new IllegalStateException( "not a double array" );
+        double[] a = new double[_size];
+        System.arraycopy( _doubles , 0 , a , 0 , _size );
+        return a;
+    }
+
+    // ---- List
+
+    public int size(){
+        return _boxed == null ? _size : _boxed.size();
+    }
+
+    public Object get( int i ){
+        if ( _boxed != null )
+            return _boxed.get( i );
+        _check( i );
+        switch ( _type ){
+        case NUMBER_INT: return _ints[i];
+        case NUMBER_LONG: return _longs[i];
+        default: return _doubles[i];
+        }
+    }
+
+    public Object set( int i , Object v ){
+        if ( _boxed == null && _type == _typeOf( v ) ){
+            Object old = get( i );
+            switch ( _type ){
+            case NUMBER_INT: _ints[i] = (Integer)v; break;
+            case NUMBER_LONG: _longs[i] = (Long)v; break;
+            default: _doubles[i] = (Double)v; break;
+            }
+            return old;
+        }
+        return _box().set( i , v );
+    }
+
+    public void add( int i , Object v ){
+        modCount++;
+        if ( _boxed == null && i == _size && _start( _typeOf( v ) ) ){
+            _grow();
+            switch ( _type ){
+            case NUMBER_INT: _ints[_size++] = (Integer)v; break;
+            case NUMBER_LONG: _longs[_size++] = (Long)v; break;
+            default: _doubles[_size++] = (Double)v; break;
+            }
+            return;
+        }
+        _box().add( i , v );
+    }
+
+    public Object remove( int i ){
+        modCount++;
+        return _box().remove( i );
+    }
+
+    public void clear(){
+        modCount++;
+        _type = 0;
+        _ints = null;
+        _longs = null;
+        _doubles = null;
+        _boxed = null;
+        _size = 0;
+    }
+
+    // ---- BSONObject, same as BasicBSONList
+
+    public Object put( String key , Object v ){
+        int i = _getInt( key );
+        while ( i > size() )
+            add( null );
+        if ( i == size() )
+            add( v );
+        else
+            set( i , v );
+        return v;
+    }
+
+    public void putAll( Map m ){
+        for ( Map.Entry entry : (Set<Map.Entry>)m.entrySet() )
+            put( entry.getKey().toString() , entry.getValue() );
+    }
+
+    public void putAll( BSONObject o ){
+        for ( String k : o.keySet() )
+            put( k , o.get( k ) );
+    }
+
+    public Object get( String key ){
+        int i = _getInt( key );
+        if ( i < 0 || i >= size() )
+            return null;
+        return get( i );
+    }
+
+    public Object removeField( String key ){
+        int i = _getInt( key );
+        if ( i < 0 || i >= size() )
+            return null;
+        return remove( i );
+    }
+
+    /**
+     * @deprecated
+     */
+    public boolean containsKey( String key ){
+        return containsField( key );
+    }
+
+    public boolean containsField( String key ){
+        int i;
+        try {
+            i = Integer.parseInt( key );
+        }
+        catch ( NumberFormatException nfe ){
+            return false;
+        }
+        return i >= 0 && i < size();
+    }
+
+    public Set<String> keySet(){
+        return new StringRangeSet( size() );
+    }
+
+    public Map toMap(){
+        Map m = new HashMap();
+        for ( int i=0; i<size(); i++ )
+            m.put( String.valueOf( i ) , get( i ) );
+        return m;
+    }
+
+    // ---- internal
+
+    /**
+     * @return true if elements of <code>type</code> go in the primitive array, starting one if empty
+     */
+    private boolean _start( byte type ){
+        if ( _boxed != null || type == 0 )
+            return false;
+        if ( _type == type )
+            return true;
+        if ( _type != 0 || _size > 0 )
+            return false;
+        _type = type;
+        return true;
+    }
+
+    private void _grow(){
+        final int cap = _type == NUMBER_INT ? ( _ints == null ? 0 : _ints.length )
+            : _type == NUMBER_LONG ? ( _longs == null ? 0 : _longs.length )
+            : ( _doubles == null ? 0 : _doubles.length );
+        if ( _size < cap )
+            return;
+
+        final int n = Math.max( 16 , cap * 2 );
+        switch ( _type ){
+        case NUMBER_INT: {
+            int[] a = new int[n];
+            if ( _ints != null )
+                System.arraycopy( _ints , 0 , a , 0 , _size );
+            _ints = a;
+            break;
+        }
+        case NUMBER_LONG: {
+            long[] a = new long[n];
+            if ( _longs != null )
+                System.arraycopy( _longs , 0 , a , 0 , _size );
+            _longs = a;
+            break;
+        }
+        default: {
+            double[] a = new double[n];
+            if ( _doubles != null )
+                System.arraycopy( _doubles , 0 , a , 0 , _size );
+            _doubles = a;
+        }
+        }
+    }
+
+    /**
+     * switches to a regular list for good
+     */
+    private List<Object> _box(){
+        if ( _boxed == null ){
+            List<Object> l = new ArrayList<Object>( Math.max( 10 , _size + 1 ) );
+            for ( int i=0; i<_size; i++ )
+                l.add( get( i ) );
+            _type = 0;
+            _ints = null;
+            _longs = null;
+            _doubles = null;
+            _size = 0;
+            _boxed = l;
+        }
+        return _boxed;
+    }
+
+    private void _check( int i ){
+        if ( i < 0 || i >= size() )
+            throw new IndexOutOfBoundsException( "index: " + i + " size: " + size() );
+    }
+
+    static byte _typeOf( Object v ){
+        if ( v == null )
+            return 0;
+        final Class c = v.getClass();
+        if ( c == Integer.class ) return NUMBER_INT;
+        if ( c == Long.class ) return NUMBER_LONG;
+        if ( c == Double.class ) return NUMBER;
+        return 0;
+    }
+
+    int _getInt( String s ){
+        try {
+            return Integer.parseInt( s );
+        }
+        catch ( Exception e ){
+            throw new IllegalArgumentException( "NumberList can only work with numeric keys, not: [" + s + "]" );
+        }
+    }
+
+    private byte _type = 0;
+    private int[] _ints;
+    private long[] _longs;
+    private double[] _doubles;
+    private int _size = 0;
+    private List<Object> _boxed;
+}
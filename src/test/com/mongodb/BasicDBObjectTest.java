@@ -118,6 +118,59 @@ public class BasicDBObjectTest extends TestCase {
         b.put( "x" , null );
         _notequal( a , b );
     }
+
+    @Test
+    public void testTracked(){
+        TrackedDBObject a = new TrackedDBObject();
+        a.put( "_id" , 1 );
+        a.put( "x" , 1 );
+        assert( ! a.isTracking() );
+        assert( a.isDirty() );
+
+        TrackedDBObject nested = new TrackedDBObject();
+        nested.put( "b" , 1 );
+        nested.put( "c" , 1 );
+        a.put( "n" , nested );
+        a.put( "y" , 1 );
+        a.markClean();
+        assert( ! a.isDirty() );
+        assertNull( a.getChanges() );
+
+        a.put( "x" , 2 );
+        a.removeField( "y" );
+        nested.put( "b" , 2 );
+        nested.removeField( "c" );
+        assertEquals( JSON.parse( "{ '$set' : { 'x' : 2 , 'n.b' : 2 } , '$unset' : { 'y' : 1 , 'n.c' : 1 } }" ) , a.getChanges() );
+
+        a.put( "y" , 3 );
+        a.put( "n" , new BasicDBObject( "z" , 1 ) );
+        assertEquals( JSON.parse( "{ '$set' : { 'x' : 2 , 'y' : 3 , 'n' : { 'z' : 1 } } }" ) , a.getChanges() );
+
+        a.markClean();
+        a.put( "_id" , 2 );
+        try {
+            a.getChanges();
+            assert( false );
+        }
+        catch ( IllegalStateException e ){
+            // needs a whole save
+        }
+    }
+
+    @Test
+    public void testTrackedDecoded(){
+        DBCallback cb = new DBCallback( null ){
+                public org.bson.BSONObject create( boolean array , java.util.List<String> path ){
+                    return array ? new BasicDBList() : new TrackedDBObject();
+                }
+            };
+        new org.bson.BSONDecoder().decode( org.bson.BSON.encode( new BasicDBObject( "_id" , 1 ).append( "x" , 1 ) ) , cb );
+        TrackedDBObject o = (TrackedDBObject)cb.get();
+        assert( o.isTracking() );
+        assertNull( o.getChanges() );
+        o.put( "x" , 2 );
+        assertEquals( JSON.parse( "{ '$set' : { 'x' : 2 } }" ) , o.getChanges() );
+    }
     
     
     public static void main( String args[] )
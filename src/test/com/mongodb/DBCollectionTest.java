@@ -184,6 +184,498 @@ public class DBCollectionTest extends TestCase {
 
     }
 
+    @Test
+    public void testBulkWrite(){
+        DBCollection c = _db.getCollection( "bulk1" );
+        c.drop();
+
+        BulkWrite b = c.bulkWrite( true );
+        for ( int i=0; i<1000; i++ )
+            b.insert( new BasicDBObject( "x" , i ) );
+        for ( int i=0; i<1000; i+=2 )
+            b.update( new BasicDBObject( "x" , i ) , new BasicDBObject( "$set" , new BasicDBObject( "even" , true ) ) );
+        b.remove( new BasicDBObject( "x" , new BasicDBObject( "$gte" , 900 ) ) );
+        b.insert( new BasicDBObject( "x" , 950 ) );
+        assertEquals( 1502 , b.size() );
+        b.execute( WriteConcern.SAFE );
+
+        assertEquals( 901 , c.find().count() );
+        assertEquals( 450 , c.find( new BasicDBObject( "even" , true ) ).count() );
+        assertEquals( 1 , c.find( new BasicDBObject( "x" , 950 ) ).count() );
+
+        // unordered: the duplicate doesn't stop the rest of the inserts
+        c.ensureIndex( new BasicDBObject( "x" , 1 ) , new BasicDBObject( "unique" , true ) );
+        b = c.bulkWrite( false );
+        b.insert( new BasicDBObject( "x" , 1 ) , new BasicDBObject( "x" , 2000 ) , new BasicDBObject( "x" , 2001 ) );
+        b.updateMulti( new BasicDBObject( "x" , new BasicDBObject( "$gte" , 2000 ) ) , new BasicDBObject( "$set" , new BasicDBObject( "big" , true ) ) );
+        b.execute( WriteConcern.NORMAL );
+        assertEquals( 2 , c.find( new BasicDBObject( "big" , true ) ).count() );
+    }
+
+    @Test
+    public void testInsertParallel(){
+        DBCollection c = _db.getCollection( "insertParallel1" );
+        c.drop();
+
+        List<DBObject> l = new ArrayList<DBObject>();
+        for ( int i=0; i<5000; i++ )
+            l.add( new BasicDBObject( "x" , i ) );
+        c.insertParallel( l , 4 );
+        assertEquals( 5000 , c.find().count() );
+
+        c.ensureIndex( new BasicDBObject( "x" , 1 ) , new BasicDBObject( "unique" , true ) );
+        DBObject[] more = new DBObject[100];
+        for ( int i=0; i<more.length; i++ )
+            more[i] = new BasicDBObject( "x" , i == 50 ? 7 : 10000 + i );
+        try {
+            c.insertParallel( more , 4 , WriteConcern.SAFE );
+            assertTrue( false );
+        }
+        catch ( MongoException.BulkInsert e ){
+            assertEquals( 1 , e.getErrors().size() );
+            int start = e.getErrors().firstKey();
+            assertTrue( start <= 50 && 50 < e.getBatchEnd( start ) );
+            assertEquals( 100 , e.getTotal() );
+        }
+        // the other batches (of 7) went in
+        assertTrue( c.find( new BasicDBObject( "x" , new BasicDBObject( "$gte" , 10000 ) ) ).count() >= 93 );
+    }
+
+    @Test
+    public void testInsertBuffer()
+        throws InterruptedException {
+        final DBCollection c = _db.getCollection( "insertBuffer1" );
+        c.drop();
+
+        final InsertBuffer b = c.getInsertBuffer().setMaxBatch( 100 ).setMaxDelay( 20 ).setMaxPending( 300 );
+        assertTrue( b == c.getInsertBuffer() );
+
+        // the clock
+        b.insert( new BasicDBObject( "x" , -1 ) );
+        for ( int i=0; i<100 && c.find().count() == 0; i++ )
+            Thread.sleep( 10 );
+        assertEquals( 1 , c.find().count() );
+
+        Thread[] threads = new Thread[4];
+        for ( int t=0; t<threads.length; t++ ){
+            final int base = t * 1000;
+            threads[t] = new Thread(){
+                    public void run(){
+                        for ( int i=0; i<1000; i++ )
+                            b.insert( new BasicDBObject( "x" , base + i ) );
+                    }
+                };
+            threads[t].start();
+        }
+        for ( Thread t : threads )
+            t.join();
+
+        b.flush();
+        assertEquals( 0 , b.size() );
+        assertEquals( 4001 , c.find().count() );
+        assertEquals( 0 , b.getNumFailed() );
+        assertLess( b.getNumBatches() , 4001 );
+
+        // once closed the collection hands out a new one
+        b.close();
+        assertTrue( b.isClosed() );
+        InsertBuffer again = c.getInsertBuffer();
+        assertTrue( again != b );
+        assertFalse( again.isClosed() );
+        again.insert( new BasicDBObject( "x" , 5000 ) );
+        again.flush();
+        assertEquals( 4002 , c.find().count() );
+        assertTrue( again == c.getInsertBuffer() );
+        again.close();
+    }
+
+    @Test
+    public void testInsertBufferFailures()
+        throws InterruptedException {
+        DBCollection c = _db.getCollection( "insertBuffer2" );
+        c.drop();
+        InsertBuffer b = new InsertBuffer( c ).setWriteConcern( WriteConcern.SAFE ).setMaxDelay( 60000 );
+
+        // a failed flush is thrown, not counted
+        b.insert( new BasicDBObject( "_id" , 1 ) , new BasicDBObject( "_id" , 1 ) );
+        try {
+            b.flush();
+            assertTrue( false );
+        }
+        catch ( MongoException e ){
+        }
+        assertEquals( 0 , b.getNumFailed() );
+
+        // the background thread's are
+        b.setMaxDelay( 10 );
+        b.insert( new BasicDBObject( "_id" , 1 ) );
+        for ( int i=0; i<100 && b.getNumFailed() == 0; i++ )
+            Thread.sleep( 10 );
+        assertEquals( 1 , b.getNumFailed() );
+        b.close();
+    }
+
+    @Test
+    public void testInsertIterator(){
+        DBCollection a = _db.getCollection( "insertIterator1" );
+        DBCollection b = _db.getCollection( "insertIterator2" );
+        a.drop();
+        b.drop();
+
+        final String pad;
+        {
+            StringBuilder buf = new StringBuilder();
+            while ( buf.length() < 1000 )
+                buf.append( "x" );
+            pad = buf.toString();
+        }
+
+        // ~10mb, more than one message, never all in memory
+        Iterator<DBObject> gen = new Iterator<DBObject>(){
+            public boolean hasNext(){
+                return _n < 10000;
+            }
+            public DBObject next(){
+                return new BasicDBObject( "x" , _n++ ).append( "pad" , pad );
+            }
+            public void remove(){
+                throw new UnsupportedOperationException();
+            }
+            int _n = 0;
+        };
+        a.insert( gen , WriteConcern.SAFE );
+        assertEquals( 10000 , a.find().count() );
+
+        b.insert( a.find().sort( new BasicDBObject( "x" , 1 ) ) );
+        assertEquals( 10000 , b.find().count() );
+        assertEquals( 9999 , b.find().sort( new BasicDBObject( "x" , -1 ) ).limit( 1 ).next().get( "x" ) );
+
+        assertNull( b.insert( new ArrayList<DBObject>().iterator() ) );
+    }
+
+    @Test
+    public void testSaveChanges(){
+        DBCollection c = _db.getCollection( "saveChanges1" );
+        c.drop();
+        c.setObjectClass( TrackedDBObject.class );
+
+        TrackedDBObject o = new TrackedDBObject();
+        o.put( "x" , 1 );
+        o.put( "y" , 1 );
+        c.saveChanges( o );
+        assertTrue( o.isTracking() );
+        assertNull( c.saveChanges( o ) );
+
+        TrackedDBObject loaded = (TrackedDBObject)c.findOne();
+        assertNull( loaded.getChanges() );
+
+        // someone else changes y, we only send x so it survives
+        c.update( new BasicDBObject( "_id" , o.get( "_id" ) ) , new BasicDBObject( "$set" , new BasicDBObject( "y" , 5 ) ) );
+        loaded.put( "x" , 2 );
+        loaded.removeField( "z" );
+        c.saveChanges( loaded );
+
+        DBObject now = c.findOne();
+        assertEquals( 2 , now.get( "x" ) );
+        assertEquals( 5 , now.get( "y" ) );
+    }
+
+    @Test
+    public void testWriteWindow()
+        throws Exception {
+        DBCollection c = _db.getCollection( "writeWindow1" );
+        c.drop();
+        c.ensureIndex( new BasicDBObject( "x" , 1 ) , "x_1" , true );
+
+        WriteWindow w = new WriteWindow( _db.getMongo() , WriteConcern.SAFE , 10 , 1000 );
+
+        WriteWindow.Ack first = null;
+        for ( int i=0; i<25; i++ ){
+            WriteWindow.Ack a = w.insert( c , new BasicDBObject( "x" , i ) );
+            if ( i == 0 )
+                first = a;
+        }
+        // the first window of 10 was acknowledged by the 10th insert
+        assertTrue( first.isDone() );
+        assertEquals( 10 , first.getNumWrites() );
+        assertNotNull( first.get() );
+
+        WriteWindow.Ack last = w.update( c , new BasicDBObject( "x" , 24 ) , new BasicDBObject( "$set" , new BasicDBObject( "y" , 1 ) ) , false , false );
+        assertFalse( last.isDone() );
+        assertEquals( 6 , last.getNumWrites() );
+        assertTrue( last == w.flush() );
+        assertTrue( last.isDone() );
+        assertEquals( 25 , c.find().count() );
+        assertEquals( 1 , c.find( new BasicDBObject( "y" , 1 ) ).count() );
+
+        // the timer acknowledges a window that doesn't fill up
+        final int[] called = new int[1];
+        WriteWindow.Ack dup = w.insert( c , new BasicDBObject( "x" , 1 ) );
+        dup.addCallback( new WriteWindow.Callback(){
+                public void done( WriteResult result , MongoException error ){
+                    if ( error != null )
+                        called[0]++;
+                }
+            } );
+        try {
+            dup.get( 5 , java.util.concurrent.TimeUnit.SECONDS );
+            assertTrue( false );
+        }
+        catch ( java.util.concurrent.ExecutionException ee ){
+            assertTrue( ee.getCause() instanceof MongoException.DuplicateKey );
+        }
+        assertEquals( 1 , called[0] );
+
+        w.close();
+        assertNull( w.flush() );
+    }
+
+    @Test
+    public void testSafeWrites()
+        throws Exception {
+        DBCollection c = _db.getCollection( "safeWrites1" );
+        c.drop();
+        c.ensureIndex( new BasicDBObject( "x" , 1 ) , "x_1" , true );
+
+        // the getlasterror goes out with the write, so the result is already there
+        WriteResult res = c.insert( new BasicDBObject( "x" , 1 ) , WriteConcern.SAFE );
+        assertNotNull( res.getCachedLastError() );
+        assertNull( res.getError() );
+
+        res = c.update( new BasicDBObject( "x" , 1 ) , new BasicDBObject( "$set" , new BasicDBObject( "y" , 1 ) ) , false , false , WriteConcern.SAFE );
+        assertNotNull( res.getCachedLastError() );
+        assertEquals( 1 , res.getN() );
+        assertEquals( Boolean.TRUE , res.getField( "updatedExisting" ) );
+
+        c.insert( new BasicDBObject( "x" , 2 ) , WriteConcern.SAFE );
+        res = c.update( new BasicDBObject() , new BasicDBObject( "$inc" , new BasicDBObject( "y" , 1 ) ) , false , true , WriteConcern.SAFE );
+        assertEquals( 2 , res.getN() );
+
+        try {
+            c.insert( new BasicDBObject( "x" , 1 ) , WriteConcern.SAFE );
+            assertTrue( false );
+        }
+        catch ( MongoException.DuplicateKey dk ){
+        }
+        // the replies are still in step after the error
+        assertEquals( 2 , c.find().count() );
+        assertEquals( 2 , c.findOne( new BasicDBObject( "x" , 1 ) ).get( "y" ) );
+
+        // writes bigger than a buffer chunk, alone and several in one go
+        StringBuilder buf = new StringBuilder();
+        while ( buf.length() < org.bson.io.PoolOutputBuffer.BUF_SIZE * 3 )
+            buf.append( "big write " );
+        String big = buf.toString();
+        res = c.insert( new BasicDBObject( "x" , 3 ).append( "s" , big ) , WriteConcern.SAFE );
+        assertNull( res.getError() );
+        List<DBObject> many = new ArrayList<DBObject>();
+        for ( int i=4; i<7; i++ )
+            many.add( new BasicDBObject( "x" , i ).append( "s" , big ) );
+        res = c.insert( many , WriteConcern.SAFE );
+        assertNull( res.getError() );
+        assertEquals( 6 , c.find().count() );
+        assertEquals( big , c.findOne( new BasicDBObject( "x" , 5 ) ).get( "s" ) );
+
+        try {
+            c.insert( new BasicDBObject( "x" , 3 ).append( "s" , big ) , WriteConcern.SAFE );
+            assertTrue( false );
+        }
+        catch ( MongoException.DuplicateKey dk ){
+        }
+
+        res = c.remove( new BasicDBObject( "x" , new BasicDBObject( "$gte" , 3 ) ) , WriteConcern.SAFE );
+        assertNotNull( res.getCachedLastError() );
+        assertEquals( 4 , res.getN() );
+        assertEquals( 2 , c.find().count() );
+    }
+
+    @Test
+    public void testAppendGetLastError(){
+        StringBuilder buf = new StringBuilder();
+        while ( buf.length() < org.bson.io.PoolOutputBuffer.BUF_SIZE * 2 )
+            buf.append( "spans chunks " );
+
+        OutMessage m = new OutMessage( null , 2002 );
+        m.writeInt( 0 );
+        m.writeCString( "db.c" );
+        m.putObject( new BasicDBObject( "s" , buf.toString() ) );
+        final int insertSize = m.size();
+        assertTrue( insertSize > org.bson.io.PoolOutputBuffer.BUF_SIZE );
+
+        m.append( "db" , WriteConcern.SAFE );
+        m.prepare();
+        byte[] b = m.toByteArray();
+
+        // the insert, then a query on db.$cmd, each with its own length and id
+        assertEquals( insertSize , org.bson.io.Bits.readInt( b , 0 ) );
+        assertEquals( 2002 , org.bson.io.Bits.readInt( b , 12 ) );
+        assertEquals( b.length - insertSize , org.bson.io.Bits.readInt( b , insertSize ) );
+        assertTrue( org.bson.io.Bits.readInt( b , 4 ) != org.bson.io.Bits.readInt( b , insertSize + 4 ) );
+        assertEquals( 2004 , org.bson.io.Bits.readInt( b , insertSize + 12 ) );
+
+        int pos = insertSize + 20;
+        assertEquals( "db.$cmd" , new String( b , pos , 7 ) );
+        assertEquals( 0 , b[pos+7] );
+        pos += 8;
+        assertEquals( 0 , org.bson.io.Bits.readInt( b , pos ) );
+        assertEquals( -1 , org.bson.io.Bits.readInt( b , pos + 4 ) );
+        pos += 8;
+        byte[] cmd = new byte[ b.length - pos ];
+        System.arraycopy( b , pos , cmd , 0 , cmd.length );
+        assertEquals( WriteConcern.SAFE.getCommand() , org.bson.BSON.decode( cmd ) );
+
+        try {
+            m.append( "db" , WriteConcern.SAFE );
+            assertTrue( false );
+        }
+        catch ( IllegalStateException ise ){
+        }
+        m.doneWithMessage();
+
+        // without one the length is the whole buffer
+        m = new OutMessage( null , 2002 );
+        m.writeInt( 0 );
+        m.writeCString( "db.c" );
+        m.putObject( new BasicDBObject( "x" , 1 ) );
+        m.prepare();
+        b = m.toByteArray();
+        assertEquals( b.length , org.bson.io.Bits.readInt( b , 0 ) );
+    }
+
+    @Test
+    public void testWriteWindowLostConnection(){
+        // server errors keep the pinned port, I/O failures give it up
+        assertFalse( WriteWindow._lostConnection( new MongoException( 11000 , "dup" ) ) );
+        assertTrue( WriteWindow._lostConnection( new MongoException.Network( "gone" , new IOException( "reset" ) ) ) );
+        assertTrue( WriteWindow._lostConnection( new MongoInternalException( "DBPort.findOne failed" , new IOException( "reset" ) ) ) );
+        assertTrue( WriteWindow._lostConnection( new MongoException( "wrapped" , new MongoInternalException( "x" , new EOFException() ) ) ) );
+        assertTrue( WriteWindow._lostConnection( new IllegalStateException() ) );
+    }
+
+
+    @Test
+    public void testSequence()
+        throws Exception {
+        final DBCollection c = _db.getCollection( "sequence1" );
+        c.drop();
+
+        final Sequence s = new Sequence( c , "x" ).setBlockSize( 10 ).setLowWater( 3 );
+        for ( long i=1; i<=25; i++ )
+            assertEquals( i , s.next() );
+
+        // a plain $inc on the same counter comes after the reserved blocks
+        DBObject o = c.findAndModify( new BasicDBObject( "_id" , "x" ) , null , null , false ,
+                                      new BasicDBObject( "$inc" , new BasicDBObject( "seq" , 1 ) ) , true , false );
+        long plain = ((Number)o.get( "seq" )).longValue();
+        assertTrue( plain > 25 );
+
+        final Set<Long> seen = Collections.synchronizedSet( new HashSet<Long>() );
+        Thread[] threads = new Thread[4];
+        for ( int i=0; i<threads.length; i++ ){
+            threads[i] = new Thread(){
+                    public void run(){
+                        for ( int j=0; j<500; j++ )
+                            seen.add( s.next() );
+                    }
+                };
+            threads[i].start();
+        }
+        for ( Thread t : threads )
+            t.join();
+        assertEquals( 2000 , seen.size() );
+        assertFalse( seen.contains( plain ) );
+    }
+
+    @Test
+    public void testWorkQueue(){
+        DBCollection c = _db.getCollection( "workQueue1" );
+        c.drop();
+        for ( int i=0; i<25; i++ )
+            c.insert( new BasicDBObject( "_id" , i ) );
+
+        WorkQueue a = new WorkQueue( c ).setPrefetch( 10 ).setAckBatch( 5 );
+        WorkQueue b = new WorkQueue( c ).setPrefetch( 10 );
+
+        DBObject job = a.poll();
+        assertEquals( 0 , job.get( "_id" ) );
+        assertEquals( 9 , a.buffered() );
+        // b can't get a's jobs
+        DBObject other = b.poll();
+        assertEquals( 10 , other.get( "_id" ) );
+
+        a.ack( job );
+        for ( int i=0; i<4; i++ )
+            a.ack( a.poll() );
+        assertEquals( 20 , c.find().count() );
+
+        // a gives back what it didn't take, b gets it
+        a.close();
+        assertEquals( 1 , b.poll().get( "_id" ) );
+        // leased but not acked, it only comes back once released
+        b.release( other );
+        b.close();
+
+        WorkQueue d = new WorkQueue( c ).setPrefetch( 100 ).setAckBatch( 1 ).setMaxBackoff( 20 );
+        DBObject j;
+        while ( ( j = d.take( 100 ) ) != null )
+            d.ack( j );
+        // 1 is still leased by b
+        assertEquals( 1 , c.find().count() );
+        d.close();
+    }
+
+    @Test
+    public void testWorkQueueLeaseExpiry()
+        throws Exception {
+        DBCollection c = _db.getCollection( "workQueue2" );
+        c.drop();
+        for ( int i=0; i<10; i++ )
+            c.insert( new BasicDBObject( "_id" , i ) );
+
+        WorkQueue a = new WorkQueue( c ).setPrefetch( 5 ).setLeaseMillis( 200 );
+        assertEquals( 0 , a.poll().get( "_id" ) );
+        assertEquals( 4 , a.buffered() );
+        Thread.sleep( 300 );
+
+        // a's leases ran out, so b can claim those jobs
+        WorkQueue b = new WorkQueue( c ).setPrefetch( 3 );
+        assertEquals( 0 , b.poll().get( "_id" ) );
+
+        // a doesn't hand out its stale jobs: 1 and 2 are b's now, 3 and 4 are given back and claimed again
+        assertEquals( 3 , a.poll().get( "_id" ) );
+        assertEquals( 4 , a.buffered() );
+        assertEquals( 1 , b.poll().get( "_id" ) );
+        assertEquals( 2 , b.poll().get( "_id" ) );
+
+        b.close();
+        a.close();
+    }
+
+    @Test
+    public void testBuckets(){
+        DBCollection c = _db.getCollection( "buckets1" );
+        c.drop();
+
+        BucketWriter w = new BucketWriter( c , 60000 ).setMaxPending( 50 );
+        long base = 1000L * 60000;
+        // out of order within a bucket, two series interleaved
+        for ( int i=119; i>=0; i-- ){
+            w.add( "a" , new Date( base + i * 1000 ) , i );
+            if ( i % 2 == 0 )
+                w.add( "b" , new Date( base + i * 1000 ) , -i );
+        }
+        w.close();
+
+        assertEquals( 4 , c.find().count() );
+        assertEquals( 60 , c.findOne( new BasicDBObject( "series" , "a" ).append( "start" , new Date( base ) ) ).get( "n" ) );
+
+        int expected = 30;
+        for ( DBObject s : new SampleCursor( c , "a" , new Date( base + 30 * 1000 ) , new Date( base + 90 * 1000 ) ) ){
+            assertEquals( "a" , s.get( "series" ) );
+            assertEquals( expected++ , s.get( "v" ) );
+        }
+        assertEquals( 90 , expected );
+    }
 
     final DB _db;
 
@@ -19,6 +19,8 @@ package com.mongodb;
 import java.io.*;
 import java.util.*;
 
+import org.bson.*;
+import org.bson.types.*;
 import org.testng.annotations.Test;
 
 import com.mongodb.util.*;
@@ -224,6 +226,443 @@ public class DBCursorTest extends TestCase {
 
     }
     
+    @Test
+    public void testTailer()
+        throws Exception {
+        DBCollection c = _db.getCollection( "tail1" );
+        c.drop();
+        _db.createCollection( "tail1" , BasicDBObjectBuilder.start().add( "capped" , true ).add( "size" , 10000 ).get() );
+        c.insert( new BasicDBObject( "x" , 0 ) );
+
+        final List<DBObject> seen = Collections.synchronizedList( new ArrayList<DBObject>() );
+        DBTailer t = new DBTailer( c , null , new DBTailer.Listener(){
+                public void gotDocument( DBObject o ){
+                    seen.add( o );
+                }
+            } );
+        t.setBackoff( 5 , 50 ).start();
+
+        for ( int i=1; i<5; i++ )
+            c.insert( new BasicDBObject( "x" , i ) );
+
+        for ( int i=0; i<100 && seen.size() < 5; i++ )
+            Thread.sleep( 50 );
+        t.stop();
+
+        assertEquals( 5 , seen.size() );
+        for ( int i=0; i<5; i++ )
+            assertEquals( i , seen.get( i ).get( "x" ) );
+        assertEquals( 4 , t.getLast().get( "x" ) );
+    }
+
+    @Test
+    public void testHasBufferedNext(){
+        DBCollection c = _db.getCollection( "bufferedNext1" );
+        c.drop();
+        for ( int i=0; i<10; i++ )
+            c.insert( new BasicDBObject( "x" , i ) );
+
+        DBCursor cur = c.find().sort( new BasicDBObject( "x" , 1 ) ).batchSize( 4 );
+        assertFalse( cur.hasBufferedNext() ); // nothing asked for yet
+        assertTrue( cur.hasNext() );
+        assertTrue( cur.hasBufferedNext() );
+        for ( int i=0; i<3; i++ )
+            cur.next();
+        assertTrue( cur.hasBufferedNext() );
+        cur.next();
+        assertFalse( cur.hasBufferedNext() ); // the rest needs a getmore
+        assertTrue( cur.hasNext() );
+        assertTrue( cur.hasBufferedNext() );
+        assertEquals( 4 , cur.next().get( "x" ) );
+        cur.close();
+
+        // nothing past the limit is buffered
+        cur = c.find().sort( new BasicDBObject( "x" , 1 ) ).limit( 2 );
+        cur.next();
+        assertTrue( cur.hasBufferedNext() );
+        cur.next();
+        assertFalse( cur.hasBufferedNext() );
+        cur.close();
+    }
+
+    /**
+     * a capped collection that looks like an oplog, with entries 1 to n
+     */
+    DBCollection _oplog( String name , int n ){
+        DBCollection c = _db.getCollection( name );
+        c.drop();
+        _db.createCollection( name , BasicDBObjectBuilder.start().add( "capped" , true ).add( "size" , 100000 ).get() );
+        for ( int i=1; i<=n; i++ )
+            _oplogEntry( c , i );
+        return c;
+    }
+
+    void _oplogEntry( DBCollection c , int i ){
+        c.insert( new BasicDBObject( "ts" , new BSONTimestamp( 1000 , i ) ).append( "op" , "i" ).append( "o" , new BasicDBObject( "x" , i ) ) );
+    }
+
+    List<List<DBObject>> _readOplog( DBCollection c , BSONTimestamp start , int maxBatch , int wanted , OplogReader[] reader )
+        throws Exception {
+        final List<List<DBObject>> batches = Collections.synchronizedList( new ArrayList<List<DBObject>>() );
+        final int[] total = new int[1];
+        OplogReader r = new OplogReader( c , start , new OplogReader.Listener(){
+                public void gotEntries( List<DBObject> entries ){
+                    batches.add( new ArrayList<DBObject>( entries ) );
+                    synchronized ( total ){
+                        total[0] += entries.size();
+                    }
+                }
+            } );
+        r.setMaxBatchSize( maxBatch ).setBackoff( 5 , 50 );
+        r.start();
+        for ( int i=0; i<100 && total[0] < wanted; i++ )
+            Thread.sleep( 50 );
+        r.stop();
+        reader[0] = r;
+        return batches;
+    }
+
+    @Test
+    public void testOplogReaderResume()
+        throws Exception {
+        DBCollection c = _oplog( "oplog1" , 10 );
+        OplogReader[] r = new OplogReader[1];
+
+        // everything after the checkpoint, not the checkpoint itself
+        List<DBObject> all = new ArrayList<DBObject>();
+        for ( List<DBObject> b : _readOplog( c , new BSONTimestamp( 1000 , 3 ) , 1000 , 7 , r ) )
+            all.addAll( b );
+        assertEquals( 7 , all.size() );
+        for ( int i=0; i<7; i++ )
+            assertEquals( new BSONTimestamp( 1000 , i + 4 ) , all.get( i ).get( "ts" ) );
+        assertEquals( new BSONTimestamp( 1000 , 10 ) , r[0].getCheckpoint() );
+
+        // a new reader picks up where the last one left off
+        _oplogEntry( c , 11 );
+        _oplogEntry( c , 12 );
+        all.clear();
+        for ( List<DBObject> b : _readOplog( c , r[0].getCheckpoint() , 1000 , 2 , r ) )
+            all.addAll( b );
+        assertEquals( 2 , all.size() );
+        assertEquals( 11 , ((DBObject)all.get( 0 ).get( "o" )).get( "x" ) );
+        assertEquals( 12 , ((DBObject)all.get( 1 ).get( "o" )).get( "x" ) );
+        assertEquals( new BSONTimestamp( 1000 , 12 ) , r[0].getCheckpoint() );
+    }
+
+    @Test
+    public void testOplogReaderBatches()
+        throws Exception {
+        DBCollection c = _oplog( "oplog2" , 10 );
+        OplogReader[] r = new OplogReader[1];
+
+        // 9 entries after the first, all in the first reply, cut into batches of at most 4
+        List<List<DBObject>> batches = _readOplog( c , new BSONTimestamp( 1000 , 1 ) , 4 , 9 , r );
+        assertEquals( 3 , batches.size() );
+        assertEquals( 4 , batches.get( 0 ).size() );
+        assertEquals( 4 , batches.get( 1 ).size() );
+        assertEquals( 1 , batches.get( 2 ).size() );
+        int next = 2;
+        for ( List<DBObject> b : batches )
+            for ( DBObject o : b )
+                assertEquals( new BSONTimestamp( 1000 , next++ ) , o.get( "ts" ) );
+        assertEquals( new BSONTimestamp( 1000 , 10 ) , r[0].getCheckpoint() );
+    }
+
+    @Test
+    public void testOplogReaderRetry()
+        throws Exception {
+        DBCollection c = _oplog( "oplog3" , 5 );
+
+        // a failed batch is delivered again, and the checkpoint only moves once it's accepted
+        final List<List<DBObject>> batches = Collections.synchronizedList( new ArrayList<List<DBObject>>() );
+        final BSONTimestamp[] checkpointAtRetry = new BSONTimestamp[1];
+        final OplogReader[] r = new OplogReader[1];
+        r[0] = new OplogReader( c , new BSONTimestamp( 1000 , 1 ) , new OplogReader.Listener(){
+                public void gotEntries( List<DBObject> entries ){
+                    batches.add( new ArrayList<DBObject>( entries ) );
+                    if ( batches.size() == 1 )
+                        throw new RuntimeException( "not yet" );
+                    checkpointAtRetry[0] = r[0].getCheckpoint();
+                }
+            } );
+        r[0].setBackoff( 5 , 50 );
+        r[0].start();
+        for ( int i=0; i<100 && batches.size() < 2; i++ )
+            Thread.sleep( 50 );
+        r[0].stop();
+
+        assertTrue( batches.size() >= 2 );
+        assertEquals( batches.get( 0 ) , batches.get( 1 ) );
+        assertEquals( 4 , batches.get( 1 ).size() );
+        assertEquals( new BSONTimestamp( 1000 , 1 ) , checkpointAtRetry[0] );
+        assertEquals( new BSONTimestamp( 1000 , 5 ) , r[0].getCheckpoint() );
+    }
+
+    @Test
+    public void testOplogReaderRolledOver()
+        throws Exception {
+        DBCollection c = _oplog( "oplog4" , 5 );
+
+        // the checkpoint isn't there any more, so entries were lost: it stops rather than skip them
+        final int[] calls = new int[1];
+        OplogReader r = new OplogReader( c , new BSONTimestamp( 999 , 1 ) , new OplogReader.Listener(){
+                public void gotEntries( List<DBObject> entries ){
+                    calls[0]++;
+                }
+            } );
+        r.setBackoff( 5 , 50 );
+        r.start();
+        for ( int i=0; i<100 && r.isRunning(); i++ )
+            Thread.sleep( 50 );
+        assertFalse( r.isRunning() );
+        assertEquals( 0 , calls[0] );
+        assertEquals( new BSONTimestamp( 999 , 1 ) , r.getCheckpoint() );
+    }
+
+    @Test
+    public void testAbandonedCursorReclaimed()
+        throws Exception {
+        DBCollection c = _db.getCollection( "abandoned1" );
+        c.drop();
+        for ( int i=0; i<100; i++ )
+            c.save( new BasicDBObject( "x" , i ) );
+
+        DBApiLayer db = (DBApiLayer)_db;
+        int before = db._liveCursors.size();
+
+        DBCursor cur = c.find().batchSize( 2 );
+        cur.next();
+        assertEquals( before + 1 , db._liveCursors.size() );
+
+        cur.close();
+        assertEquals( before , db._liveCursors.size() );
+
+        cur = c.find().batchSize( 2 );
+        cur.next();
+        cur = null;
+
+        for ( int i=0; i<100 && db._liveCursors.size() > before; i++ ){
+            System.gc();
+            Thread.sleep( 20 );
+        }
+        assertEquals( before , db._liveCursors.size() );
+
+        // exhausted cursors are forgotten right away
+        assertEquals( 100 , c.find().batchSize( 2 ).itcount() );
+        assertEquals( before , db._liveCursors.size() );
+    }
+
+    @Test
+    public void testLazy(){
+        DBCollection c = _db.getCollection( "lazy1" );
+        c.drop();
+        for ( int i=0; i<10; i++ )
+            c.insert( new BasicDBObject( "x" , i ).append( "y" , new BasicDBObject( "z" , "v" + i ) ) );
+
+        int n = 0;
+        for ( DBObject o : c.find().sort( new BasicDBObject( "x" , 1 ) ).setDBCallbackFactory( LazyDBCallback.LAZY_FACTORY ) ){
+            assertTrue( o instanceof LazyDBObject );
+            assertEquals( n , o.get( "x" ) );
+            assertEquals( "v" + n , ((DBObject)o.get( "y" )).get( "z" ) );
+            n++;
+        }
+        assertEquals( 10 , n );
+
+        c.setDBCallbackFactory( LazyDBCallback.LAZY_FACTORY );
+        DBObject o = c.findOne( new BasicDBObject( "x" , 3 ) );
+        assertTrue( o instanceof LazyDBObject );
+
+        // saved unchanged, the bytes go back as they are
+        c.save( o );
+        o.put( "w" , 1 );
+        c.save( o );
+        c.setDBCallbackFactory( null );
+        assertEquals( 1 , c.findOne( new BasicDBObject( "x" , 3 ) ).get( "w" ) );
+        assertEquals( 10 , c.find().count() );
+    }
+
+    @Test
+    public void testNumberArrays(){
+        DBCollection c = _db.getCollection( "numberArrays1" );
+        c.drop();
+        ObjectId id = new ObjectId();
+        c.insert( new BasicDBObject( "_id" , 1 ).append( "n" , new int[]{ 1 , 2 , 3 } ).append( "d" , new double[]{ 0.5 } )
+                  .append( "s" , Arrays.asList( "a" , "b" ) ).append( "o" , Arrays.asList( new BasicDBObject( "x" , 1 ) ) )
+                  .append( "p" , Arrays.asList( new DBPointer( "other" , id ) ) )
+                  .append( "r" , Arrays.asList( new DBRef( _db , "other" , id ) ) ).append( "e" , new int[0] ) );
+
+        DBObject o = c.find().setDBCallbackFactory( DBCallback.NUMBER_ARRAYS_FACTORY ).next();
+        assertEquals( BSON.NUMBER_INT , ((NumberList)o.get( "n" )).getType() );
+        assertEquals( 3 , ((NumberList)o.get( "n" )).getInt( 2 ) );
+        assertEquals( BSON.NUMBER , ((NumberList)o.get( "d" )).getType() );
+
+        // everything else is the usual list
+        assertEquals( "b" , ((BasicDBList)o.get( "s" )).get( 1 ) );
+        assertEquals( 1 , ((DBObject)((BasicDBList)o.get( "o" )).get( 0 )).get( "x" ) );
+        assertEquals( id , ((DBPointer)((BasicDBList)o.get( "p" )).get( 0 )).getId() );
+        assertEquals( id , ((DBRef)((BasicDBList)o.get( "r" )).get( 0 )).getId() );
+        assertEquals( 0 , ((BasicDBList)o.get( "e" )).size() );
+
+        // and saves back the same
+        c.save( o );
+        assertEquals( o.get( "n" ) , c.findOne().get( "n" ) );
+        assertEquals( 1 , c.find().count() );
+    }
+
+    @Test
+    public void testMaxInMemory(){
+        DBCollection c = _db.getCollection( "maxInMemory1" );
+        c.drop();
+        for ( int i=0; i<500; i++ )
+            c.save( new BasicDBObject( "x" , i ).append( "s" , "foo" + i ) );
+
+        DBCursor cur = c.find().sort( new BasicDBObject( "x" , 1 ) ).maxInMemory( 50 );
+        assertEquals( 500 , cur.length() );
+
+        List<DBObject> all = cur.toArray();
+        assertEquals( 450 , ((SpillList)all).spilled() );
+        assertEquals( 499 , all.get( 499 ).get( "x" ) );
+        assertEquals( "foo123" , all.get( 123 ).get( "s" ) );
+        assertEquals( 7 , all.get( 7 ).get( "x" ) );
+
+        int n = 0;
+        for ( DBObject o : all )
+            assertEquals( n++ , o.get( "x" ) );
+
+        cur.close();
+        try {
+            all.get( 300 );
+            assertTrue( false );
+        }
+        catch ( IllegalStateException e ){
+            // spill file is gone
+        }
+    }
+
+    @Test
+    public void testPage(){
+        DBCollection c = _db.getCollection( "page1" );
+        c.drop();
+        // lots of equal x so the pages have to break ties on _id
+        for ( int i=0; i<95; i++ )
+            c.save( new BasicDBObject( "x" , i / 10 ).append( "y" , i ) );
+
+        for ( int dir = -1; dir <= 1; dir += 2 ){
+            Set<Object> seen = new HashSet<Object>();
+            int pages = 0;
+            int prev = dir > 0 ? Integer.MIN_VALUE : Integer.MAX_VALUE;
+            String token = null;
+            do {
+                DBPage p = c.findPage( new BasicDBObject( "y" , new BasicDBObject( "$lt" , 1000 ) ) ,
+                                       new BasicDBObject( "y" , 1 ) ,
+                                       new BasicDBObject( "x" , dir ) , 7 , token );
+                pages++;
+                for ( DBObject o : p ){
+                    assertTrue( seen.add( o.get( "_id" ) ) );
+                    int x = ((Number)o.get( "x" )).intValue();
+                    assertTrue( dir > 0 ? x >= prev : x <= prev );
+                    prev = x;
+                }
+                token = p.getNextToken();
+            } while ( token != null );
+
+            assertEquals( 95 , seen.size() );
+            assertEquals( 14 , pages );
+        }
+
+        DBPage p = c.find().sort( new BasicDBObject( "y" , 1 ) ).page( 95 , null );
+        assertEquals( 95 , p.size() );
+        assertFalse( p.hasNextPage() );
+
+        String token = c.find().sort( new BasicDBObject( "y" , 1 ) ).page( 10 , null ).getNextToken();
+        try {
+            c.find().sort( new BasicDBObject( "y" , -1 ) ).page( 10 , token );
+            assertTrue( false );
+        }
+        catch ( IllegalArgumentException e ){
+            // token is for another sort
+        }
+    }
+
+    @Test
+    public void testPageFields(){
+        DBCollection c = _db.getCollection( "page3" );
+        c.drop();
+        for ( int i=0; i<50; i++ )
+            c.insert( new BasicDBObject( "_id" , i ).append( "x" , i / 10 ).append( "y" , i ) );
+
+        // the sort fields come back whatever the projection says, so the tokens have them
+        DBObject[] fields = new DBObject[]{ new BasicDBObject( "_id" , 1 ) ,
+                                            new BasicDBObject( "_id" , 0 ).append( "y" , 1 ) ,
+                                            new BasicDBObject( "x" , 0 ) ,
+                                            new BasicDBObject( "_id" , 0 ) ,
+                                            new BasicDBObject( "x" , false ).append( "y" , 0 ) };
+        for ( DBObject f : fields ){
+            Set<Object> seen = new HashSet<Object>();
+            int prev = -1;
+            String token = null;
+            do {
+                DBPage p = c.findPage( null , f , new BasicDBObject( "x" , 1 ) , 7 , token );
+                for ( DBObject o : p ){
+                    assertTrue( seen.add( o.get( "_id" ) ) );
+                    int x = ((Number)o.get( "x" )).intValue();
+                    assertTrue( x >= prev );
+                    prev = x;
+                }
+                token = p.getNextToken();
+            } while ( token != null );
+            assertEquals( 50 , seen.size() );
+        }
+
+        // the rest of the projection still applies
+        DBObject o = c.findPage( null , new BasicDBObject( "y" , 0 ) , new BasicDBObject( "x" , 1 ) , 1 , null ).getDocuments().get( 0 );
+        assertFalse( o.containsField( "y" ) );
+        o = c.findPage( null , new BasicDBObject( "_id" , 1 ) , new BasicDBObject( "x" , 1 ) , 1 , null ).getDocuments().get( 0 );
+        assertFalse( o.containsField( "y" ) );
+    }
+
+    @Test
+    public void testPageNulls(){
+        // null and missing sort before everything, and "after null" isn't $gt : null
+        DBObject sort = DBPage.keysetSort( new BasicDBObject( "x" , 1 ) );
+        assertEquals( new BasicDBObject( "$or" , Arrays.asList( new BasicDBObject( "x" , new BasicDBObject( "$ne" , null ) ) ,
+                                                                new BasicDBObject( "x" , null ).append( "_id" , new BasicDBObject( "$gt" , 5 ) ) ) ) ,
+                      DBPage.seek( null , sort , Arrays.asList( (Object)null , 5 ) ) );
+        sort = DBPage.keysetSort( new BasicDBObject( "x" , -1 ) );
+        assertEquals( new BasicDBObject( "x" , new BasicDBObject( "$lte" , null ) )
+                      .append( "$or" , Arrays.asList( new BasicDBObject( "x" , new BasicDBObject( "$lt" , null ) ) ,
+                                                      new BasicDBObject( "x" , null ).append( "_id" , new BasicDBObject( "$gt" , 5 ) ) ) ) ,
+                      DBPage.seek( null , sort , Arrays.asList( (Object)null , 5 ) ) );
+        // going down, nulls come after every value
+        assertEquals( new BasicDBObject( "$or" , Arrays.asList( new BasicDBObject( "x" , new BasicDBObject( "$lt" , 3 ) ) ,
+                                                                new BasicDBObject( "x" , null ) ,
+                                                                new BasicDBObject( "x" , 3 ).append( "_id" , new BasicDBObject( "$gt" , 5 ) ) ) ) ,
+                      DBPage.seek( null , sort , Arrays.asList( (Object)3 , 5 ) ) );
+
+        DBCollection c = _db.getCollection( "page2" );
+        c.drop();
+        for ( int i=0; i<30; i++ ){
+            BasicDBObject o = new BasicDBObject( "_id" , i );
+            if ( i % 3 == 1 )
+                o.put( "x" , null );
+            else if ( i % 3 == 2 )
+                o.put( "x" , i / 4 );
+            c.insert( o );
+        }
+
+        for ( int dir = -1; dir <= 1; dir += 2 ){
+            Set<Object> seen = new HashSet<Object>();
+            String token = null;
+            do {
+                DBPage p = c.find().sort( new BasicDBObject( "x" , dir ) ).page( 4 , token );
+                for ( DBObject o : p )
+                    assertTrue( seen.add( o.get( "_id" ) ) );
+                token = p.getNextToken();
+            } while ( token != null );
+            assertEquals( 30 , seen.size() );
+        }
+    }
+
     final DB _db;
 
     public static void main( String args[] )
@@ -18,6 +18,7 @@ package com.mongodb;
 
 import java.io.*;
 
+import org.bson.io.*;
 import org.testng.annotations.Test;
 
 import com.mongodb.util.*;
@@ -111,6 +112,34 @@ public class ReflectionTest extends TestCase {
         assertEquals( 17 , o.getInner().getNumber() );
     }
 
+    @Test
+    public void testEncodeDirect()
+        throws MongoException {
+        Outer o = new Outer();
+        o.setName( "eliot" );
+        o.setInner( new Inner( 17 ) );
+        o.set_id( 5 );
+
+        OutMessage m = new OutMessage( null );
+        m.done();
+        PoolOutputBuffer buf = new PoolOutputBuffer();
+        m.set( buf );
+        m.putObject( o );
+        m.done();
+
+        // same bytes as going through keySet() and get(), with _id first
+        BasicDBObject b = new BasicDBObject( "_id" , 5 ).append( "Inner" , new BasicDBObject( "Number" , 17 ).append( "_id" , null ) ).append( "Name" , "eliot" );
+        assertEquals( org.bson.BSON.encode( b ).length , buf.size() );
+        assertTrue( java.util.Arrays.equals( org.bson.BSON.encode( b ) , buf.toByteArray() ) );
+
+        // numbers stored as another type still fit the setter
+        Inner i = new Inner();
+        i.put( "Number" , 3.0 );
+        assertEquals( 3 , i.getNumber() );
+        i.put( "Number" , null );
+        assertEquals( 3 , i.getNumber() );
+    }
+
     final DB _db;
     
     public static void main( String args[] )
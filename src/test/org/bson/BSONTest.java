@@ -19,6 +19,7 @@
 package org.bson;
 
 import java.io.*;
+import java.nio.*;
 import java.util.*;
 
 import org.bson.io.*;
@@ -316,6 +317,402 @@ public class BSONTest extends TestCase {
         _roundTrip( new BasicBSONObject( "a" , "b" ) );
     }
 
+    @Test
+    public void testLazy(){
+        ObjectId id = new ObjectId();
+        Date d = new Date();
+        BSONObject o = new BasicBSONObject( "_id" , id ).append( "i" , 5 ).append( "l" , 6L ).append( "d" , 1.5 )
+            .append( "s" , "eliot" ).append( "b" , true ).append( "n" , null ).append( "date" , d )
+            .append( "a" , Arrays.asList( 1 , 2 ) ).append( "o" , new BasicBSONObject( "x" , "y" ) )
+            .append( "bin" , new byte[]{ 1 , 2 , 3 } ).append( "z" , "last" );
+        byte[] b = BSON.encode( o );
+
+        LazyBSONObject l = new LazyBSONObject( b );
+        assertEquals( new ArrayList<String>( o.keySet() ) , new ArrayList<String>( l.keySet() ) );
+        assertEquals( id , l.get( "_id" ) );
+        assertEquals( 5 , l.get( "i" ) );
+        assertEquals( 6L , l.get( "l" ) );
+        assertEquals( 1.5 , l.get( "d" ) );
+        assertEquals( "eliot" , l.get( "s" ) );
+        assertEquals( Boolean.TRUE , l.get( "b" ) );
+        assertNull( l.get( "n" ) );
+        assertTrue( l.containsField( "n" ) );
+        assertFalse( l.containsField( "q" ) );
+        assertEquals( d , l.get( "date" ) );
+        assertEquals( 2 , ((List)l.get( "a" )).size() );
+        assertEquals( "y" , ((BSONObject)l.get( "o" )).get( "x" ) );
+        assertTrue( l.get( "o" ) instanceof LazyBSONObject );
+        assertEquals( 3 , ((byte[])l.get( "bin" )).length );
+        assertEquals( "last" , l.get( "z" ) );
+        assertTrue( l.get( "s" ) == l.get( "s" ) );
+
+        // unchanged goes out as it came in, also when embedded
+        assertTrue( Arrays.equals( b , BSON.encode( l ) ) );
+        assertTrue( Arrays.equals( BSON.encode( new BasicBSONObject( "e" , o ) ) , BSON.encode( new BasicBSONObject( "e" , l ) ) ) );
+
+        l.put( "i" , 7 );
+        l.removeField( "z" );
+        assertTrue( l.isChanged() );
+        assertEquals( 7 , l.get( "i" ) );
+        assertFalse( l.containsField( "z" ) );
+        BSONObject back = BSON.decode( BSON.encode( l ) );
+        assertEquals( 7 , back.get( "i" ) );
+        assertEquals( "y" , ((BSONObject)back.get( "o" )).get( "x" ) );
+    }
+
+    @Test
+    public void testLazyNestedChange(){
+        BSONObject o = new BasicBSONObject( "sub" , new BasicBSONObject( "x" , 1 ) ).append( "arr" , Arrays.asList( 1 , 2 , 3 ) )
+            .append( "deep" , new BasicBSONObject( "a" , new BasicBSONObject( "b" , 1 ) ) );
+        byte[] b = BSON.encode( o );
+
+        // reading immutable values doesn't count as a change
+        LazyBSONObject l = new LazyBSONObject( b );
+        assertEquals( 1 , ((BSONObject)l.get( "sub" )).get( "x" ) );
+        assertFalse( l.isChanged() );
+
+        ((BSONObject)l.get( "sub" )).put( "x" , 99 );
+        assertTrue( l.isChanged() );
+        assertEquals( 99 , ((BSONObject)BSON.decode( BSON.encode( l ) ).get( "sub" )).get( "x" ) );
+
+        l = new LazyBSONObject( b );
+        ((List)l.get( "arr" )).add( 4 );
+        assertTrue( l.isChanged() );
+        assertEquals( Arrays.asList( 1 , 2 , 3 , 4 ) , BSON.decode( BSON.encode( l ) ).get( "arr" ) );
+
+        l = new LazyBSONObject( b );
+        ((BSONObject)((BSONObject)l.get( "deep" )).get( "a" )).put( "b" , 2 );
+        assertTrue( l.isChanged() );
+        BSONObject back = BSON.decode( BSON.encode( new BasicBSONObject( "e" , l ) ) );
+        assertEquals( 2 , ((BSONObject)((BSONObject)((BSONObject)back.get( "e" )).get( "deep" )).get( "a" )).get( "b" ) );
+    }
+
+    @Test
+    public void testLazyToString(){
+        LazyBSONObject l = new LazyBSONObject( BSON.encode( new BasicBSONObject( "a" , 1 ).append( "o" , new BasicBSONObject( "s" , "x" ) ) ) );
+        assertEquals( "{ \"a\" : 1 , \"o\" : { \"s\" : \"x\"}}" , l.toString() );
+        assertEquals( "{ \"s\" : \"x\"}" , l.get( "o" ).toString() );
+    }
+
+    @Test
+    public void testTimestamp(){
+        BSONTimestamp a = new BSONTimestamp( 1000 , 3 );
+        assertEquals( a , new BSONTimestamp( 1000 , 3 ) );
+        assertEquals( a.hashCode() , new BSONTimestamp( 1000 , 3 ).hashCode() );
+        assertTrue( ! a.equals( new BSONTimestamp( 1000 , 4 ) ) );
+        assertTrue( ! a.equals( new BSONTimestamp( 1001 , 3 ) ) );
+        assertTrue( ! a.equals( null ) );
+        assertTrue( ! a.equals( "1000" ) );
+        assertEquals( new BSONTimestamp() , new BSONTimestamp( 0 , 0 ) );
+
+        // comes back from the wire equal, so it can be looked up
+        Set<BSONTimestamp> seen = new HashSet<BSONTimestamp>();
+        seen.add( a );
+        BSONObject back = BSON.decode( BSON.encode( new BasicBSONObject( "ts" , a ) ) );
+        assertEquals( a , back.get( "ts" ) );
+        assertTrue( seen.contains( back.get( "ts" ) ) );
+    }
+
+    @Test
+    public void testFieldFilter(){
+        BSONObject o = new BasicBSONObject( "_id" , new ObjectId() ).append( "a" , 1 ).append( "s" , "skip me" )
+            .append( "r" , java.util.regex.Pattern.compile( "x+" ) ).append( "bin" , new byte[2000] )
+            .append( "b" , new BasicBSONObject( "c" , 2 ).append( "d" , 3 ) )
+            .append( "l" , Arrays.asList( new BasicBSONObject( "c" , 4 ).append( "d" , 5 ) , 6 ) )
+            .append( "z" , "end" );
+        byte[] b = BSON.encode( o );
+
+        BSONDecoder d = new BSONDecoder();
+        BasicBSONCallback c = new BasicBSONCallback();
+        assertEquals( b.length , d.decode( b , c , Arrays.asList( "a" , "b.c" , "l.d" , "z" ) ) );
+        BSONObject res = (BSONObject)c.get();
+        assertEquals( Arrays.asList( "a" , "b" , "l" , "z" ) , new ArrayList<String>( res.keySet() ) );
+        assertEquals( 1 , res.get( "a" ) );
+        assertEquals( new BasicBSONObject( "c" , 2 ) , res.get( "b" ) );
+        List l = (List)res.get( "l" );
+        assertEquals( 2 , l.size() );
+        assertEquals( new BasicBSONObject( "d" , 5 ) , l.get( 0 ) );
+        assertEquals( 6 , l.get( 1 ) );
+        assertEquals( "end" , res.get( "z" ) );
+
+        // the decoder still works normally afterwards
+        c.reset();
+        d.decode( b , c );
+        assertEquals( o.keySet() , ((BSONObject)c.get()).keySet() );
+    }
+
+    @Test
+    public void testWriterDispatch(){
+        // a BSONObject that's also a Map is written as a BSONObject, as the instanceof chain did
+        assertEquals( BSONEncoder.W_OBJECT , BSONEncoder._writerFor( BasicBSONObject.class ) );
+        assertEquals( BSONEncoder.W_MAP , BSONEncoder._writerFor( HashMap.class ) );
+        assertEquals( BSONEncoder.W_OBJECT , BSONEncoder._writerFor( BasicBSONList.class ) );
+        assertEquals( BSONEncoder.W_ITERABLE , BSONEncoder._writerFor( ArrayList.class ) );
+        assertEquals( BSONEncoder.W_NUMBER , BSONEncoder._writerFor( java.util.concurrent.atomic.AtomicInteger.class ) );
+        assertEquals( BSONEncoder.W_BYTES , BSONEncoder._writerFor( byte[].class ) );
+        assertEquals( BSONEncoder.W_ARRAY , BSONEncoder._writerFor( int[].class ) );
+        assertEquals( BSONEncoder.W_SPECIAL , BSONEncoder._writerFor( Object.class ) );
+
+        BSONObject o = new BasicBSONObject( "u" , new UUID( 1 , 2 ) ).append( "c" , new Code( "x" ) ).append( "s" , new Symbol( "y" ) );
+        BSONObject back = BSON.decode( BSON.encode( o ) );
+        assertEquals( new UUID( 1 , 2 ) , back.get( "u" ) );
+        assertEquals( "x" , ((Code)back.get( "c" )).getCode() );
+        assertEquals( "y" , back.get( "s" ).toString() );
+    }
+
+    @Test
+    public void testNameCache(){
+        StringBuilder longName = new StringBuilder();
+        for ( int i=0; i<100; i++ )
+            longName.append( 'x' );
+
+        BSONObject o = new BasicBSONObject( "name" , 1 ).append( "été" , 2 ).append( "a" , 3 )
+            .append( longName.toString() , 4 ).append( "" , 5 );
+        byte[] b = BSON.encode( o );
+
+        BSONDecoder d = new BSONDecoder();
+        BasicBSONCallback c = new BasicBSONCallback();
+        d.decode( b , c );
+        BSONObject first = (BSONObject)c.get();
+        assertEquals( o , first );
+
+        c.reset();
+        d.decode( b , c );
+        BSONObject second = (BSONObject)c.get();
+        assertEquals( o , second );
+
+        // the same names come back as the same strings
+        Iterator<String> i = second.keySet().iterator();
+        for ( String k : first.keySet() ){
+            String k2 = i.next();
+            assertEquals( k , k2 );
+            if ( k.length() <= BSONDecoder.MAX_CACHED_NAME )
+                assertTrue( k == k2 );
+        }
+    }
+
+    @Test
+    public void testNumberArrays(){
+        // primitive arrays encode the same as lists of boxed numbers
+        assertTrue( Arrays.equals( BSON.encode( new BasicBSONObject( "a" , Arrays.asList( 1 , 2 , 300 ) ) ) ,
+                                    BSON.encode( new BasicBSONObject( "a" , new int[]{ 1 , 2 , 300 } ) ) ) );
+        assertTrue( Arrays.equals( BSON.encode( new BasicBSONObject( "a" , Arrays.asList( 1L , 5000000000L ) ) ) ,
+                                    BSON.encode( new BasicBSONObject( "a" , new long[]{ 1 , 5000000000L } ) ) ) );
+        assertTrue( Arrays.equals( BSON.encode( new BasicBSONObject( "a" , Arrays.asList( 1.5 , -2.0 ) ) ) ,
+                                    BSON.encode( new BasicBSONObject( "a" , new double[]{ 1.5 , -2.0 } ) ) ) );
+        assertTrue( Arrays.equals( BSON.encode( new BasicBSONObject( "a" , Arrays.asList( 0.5 ) ) ) ,
+                                    BSON.encode( new BasicBSONObject( "a" , new float[]{ 0.5f } ) ) ) );
+
+        double[] vector = new double[1000];
+        for ( int i=0; i<vector.length; i++ )
+            vector[i] = i / 3.0;
+        BSONObject o = new BasicBSONObject( "v" , vector ).append( "i" , new int[]{ 4 , 5 } )
+            .append( "mixed" , Arrays.asList( 1 , 2.5 ) ).append( "strings" , Arrays.asList( "a" ) )
+            .append( "empty" , new int[0] );
+        byte[] b = BSON.encode( o );
+
+        BasicBSONCallback c = new BasicBSONCallback();
+        c.setNumberArrays( true );
+        new BSONDecoder().decode( b , c );
+        BSONObject back = (BSONObject)c.get();
+
+        NumberList v = (NumberList)back.get( "v" );
+        assertEquals( BSON.NUMBER , v.getType() );
+        assertEquals( 1000 , v.size() );
+        assertEquals( 999 / 3.0 , v.getDouble( 999 ) );
+        assertEquals( vector.length , v.toDoubleArray().length );
+        assertEquals( new NumberList( new int[]{ 4 , 5 } ) , back.get( "i" ) );
+        assertEquals( BSON.NUMBER_INT , ((NumberList)back.get( "i" )).getType() );
+
+        // anything but one type of number is a regular list
+        assertTrue( back.get( "mixed" ) instanceof BasicBSONList );
+        assertEquals( Arrays.asList( 1 , 2.5 ) , back.get( "mixed" ) );
+        assertTrue( back.get( "strings" ) instanceof BasicBSONList );
+        assertEquals( Arrays.asList( "a" ) , back.get( "strings" ) );
+        assertTrue( back.get( "empty" ) instanceof BasicBSONList );
+        assertEquals( 0 , ((List)back.get( "empty" )).size() );
+
+        // and go back out as they came in
+        assertTrue( Arrays.equals( b , BSON.encode( back ) ) );
+
+        // off by default
+        assertTrue( BSON.decode( b ).get( "v" ) instanceof BasicBSONList );
+
+        // nested arrays and objects, and numbers after something else
+        BasicBSONList nested = new BasicBSONList();
+        nested.add( new int[]{ 1 , 2 } );
+        nested.add( new BasicBSONObject( "x" , 1 ) );
+        nested.add( Arrays.asList( 3 , "z" ) );
+        nested.add( Arrays.asList( null , 4 ) );
+        o = new BasicBSONObject( "n" , nested ).append( "after" , 5 );
+        b = BSON.encode( o );
+        c.reset();
+        new BSONDecoder().decode( b , c );
+        back = (BSONObject)c.get();
+        BasicBSONList l = (BasicBSONList)back.get( "n" );
+        assertEquals( 4 , l.size() );
+        assertEquals( BSON.NUMBER_INT , ((NumberList)l.get( 0 )).getType() );
+        assertEquals( new BasicBSONObject( "x" , 1 ) , l.get( 1 ) );
+        assertEquals( Arrays.asList( 3 , "z" ) , l.get( 2 ) );
+        assertTrue( l.get( 2 ) instanceof BasicBSONList );
+        assertEquals( Arrays.asList( null , 4 ) , l.get( 3 ) );
+        assertTrue( l.get( 3 ) instanceof BasicBSONList );
+        assertEquals( 5 , back.get( "after" ) );
+        assertTrue( Arrays.equals( b , BSON.encode( back ) ) );
+
+        // a top level array
+        c.reset();
+        c.arrayStart();
+        c.gotString( "0" , "a" );
+        c.gotInt( "1" , 1 );
+        c.arrayDone();
+        assertTrue( c.get() instanceof BasicBSONList );
+        assertEquals( Arrays.asList( "a" , 1 ) , c.get() );
+    }
+
+    @Test
+    public void testNumberList(){
+        NumberList l = new NumberList();
+        l.addLong( 1 );
+        l.add( 2L );
+        assertEquals( BSON.NUMBER_LONG , l.getType() );
+        assertEquals( 2L , l.get( "1" ) );
+        l.put( "0" , 7L );
+        assertEquals( 7L , l.getLong( 0 ) );
+
+        l.put( "3" , "x" );
+        assertTrue( ! l.isPrimitive() );
+        assertEquals( Arrays.asList( 7L , 2L , null , "x" ) , l );
+        assertEquals( 2L , l.getLong( 1 ) );
+    }
+
+    @Test
+    public void testCompactObject(){
+        CompactBSONObject c = new CompactBSONObject();
+        BasicBSONObject b = new BasicBSONObject();
+        for ( int i=0; i<20; i++ ){
+            c.put( "f" + i , i );
+            b.put( "f" + i , i );
+            assertEquals( b , c );
+            assertEquals( c , b );
+            assertEquals( i , c.get( "f" + i ) );
+        }
+        assertEquals( new ArrayList<String>( b.keySet() ) , new ArrayList<String>( c.keySet() ) );
+        assertEquals( b.hashCode() , c.hashCode() );
+        assertTrue( Arrays.equals( BSON.encode( b ) , BSON.encode( c ) ) );
+
+        // replacing keeps the position, removing keeps the order of the rest
+        c.put( "f3" , "x" );
+        assertEquals( "x" , c.get( "f3" ) );
+        assertEquals( 3 , new ArrayList<String>( c.keySet() ).indexOf( "f3" ) );
+        for ( int i=19; i>=0; i -= 2 ){
+            assertTrue( c.removeField( "f" + i ) != null );
+            assertTrue( ! c.containsField( "f" + i ) );
+        }
+        assertEquals( 10 , c.size() );
+        assertEquals( Arrays.asList( "f0" , "f2" , "f4" ) , new ArrayList<String>( c.keySet() ).subList( 0 , 3 ) );
+        for ( int i=0; i<20; i += 2 )
+            assertEquals( i , c.get( "f" + i ) );
+
+        Iterator<String> i = c.keySet().iterator();
+        i.next();
+        i.remove();
+        assertEquals( 9 , c.size() );
+        assertTrue( ! c.containsField( "f0" ) );
+        assertEquals( 2 , c.get( "f2" ) );
+
+        // decoding
+        BSONObject o = new BasicBSONObject( "a" , 1 ).append( "b" , new BasicBSONObject( "c" , "d" ) ).append( "l" , Arrays.asList( 1 ) );
+        BasicBSONCallback cb = new BasicBSONCallback();
+        cb.setCompactObjects( true );
+        new BSONDecoder().decode( BSON.encode( o ) , cb );
+        BSONObject back = (BSONObject)cb.get();
+        assertTrue( back instanceof CompactBSONObject );
+        assertTrue( back.get( "b" ) instanceof CompactBSONObject );
+        assertTrue( back.get( "l" ) instanceof List );
+        assertEquals( o , back );
+    }
+
+    @Test
+    public void testByteBuffer()
+        throws IOException {
+        List<BSONObject> objs = new ArrayList<BSONObject>();
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        bout.write( new byte[]{ 9 , 9 , 9 } ); // so nothing starts at 0
+        for ( int i=0; i<5; i++ ){
+            BSONObject o = new BasicBSONObject( "_id" , i ).append( "s" , "caf\u00e9 " + _data.get( i ) )
+                .append( "l" , 5000000000L + i ).append( "b" , new byte[]{ 1 , 2 } )
+                .append( "o" , new BasicBSONObject( "x" , Arrays.asList( 1.5 , "y" ) ) ).append( "e" , "" );
+            objs.add( o );
+            bout.write( BSON.encode( o ) );
+        }
+        byte[] all = bout.toByteArray();
+
+        ByteBuffer heap = ByteBuffer.wrap( all , 3 , all.length - 3 ).slice();
+        ByteBuffer direct = ByteBuffer.allocateDirect( all.length );
+        direct.put( all ).flip();
+        direct.position( 3 );
+
+        File f = File.createTempFile( "bson" , ".bson" );
+        f.deleteOnExit();
+        FileOutputStream fout = new FileOutputStream( f );
+        fout.write( all );
+        fout.close();
+        RandomAccessFile raf = new RandomAccessFile( f , "r" );
+        ByteBuffer mapped = raf.getChannel().map( java.nio.channels.FileChannel.MapMode.READ_ONLY , 0 , all.length );
+        raf.close();
+        mapped.position( 3 );
+
+        BSONDecoder d = new BSONDecoder();
+        for ( ByteBuffer buf : new ByteBuffer[]{ heap , direct , mapped } ){
+            int i = 0;
+            while ( buf.hasRemaining() ){
+                int start = buf.position();
+                BasicBSONCallback c = new BasicBSONCallback();
+                int len = d.decode( buf , c );
+                assertEquals( start + len , buf.position() );
+                BSONObject back = (BSONObject)c.get();
+                assertEquals( objs.get( i ).get( "s" ) , back.get( "s" ) );
+                assertEquals( objs.get( i ).get( "l" ) , back.get( "l" ) );
+                assertEquals( objs.get( i ).get( "o" ) , back.get( "o" ) );
+                assertTrue( Arrays.equals( new byte[]{ 1 , 2 } , (byte[])back.get( "b" ) ) );
+                i++;
+            }
+            assertEquals( objs.size() , i );
+            assertEquals( ByteOrder.BIG_ENDIAN , buf.order() );
+        }
+
+        // a cut off object is rejected, and the position stays put
+        ByteBuffer cut = ByteBuffer.wrap( all , 3 , 20 );
+        try {
+            d.decode( cut , new BasicBSONCallback() );
+            assertTrue( false );
+        }
+        catch ( IllegalArgumentException e ){
+        }
+        assertEquals( 3 , cut.position() );
+
+        // so is a string that runs past its object in direct memory
+        byte[] bad = BSON.encode( objs.get( 0 ) );
+        assertEquals( BSON.STRING , bad[13] );
+        bad[16] = 100;
+        bad[17] = 3; // "s" claims 868 bytes
+        ByteBuffer badDirect = ByteBuffer.allocateDirect( bad.length + 1000 );
+        badDirect.put( bad ).put( new byte[1000] ).flip();
+        try {
+            d.decode( badDirect , new BasicBSONCallback() );
+            assertTrue( false );
+        }
+        catch ( IllegalArgumentException e ){
+        }
+        assertEquals( 0 , badDirect.position() );
+
+        // the decoder is still usable
+        assertEquals( all.length - 3 , heap.capacity() );
+        heap.position( 0 );
+        d.decode( heap , new BasicBSONCallback() );
+    }
+
     List<String> _data = new ArrayList<String>();
 
 
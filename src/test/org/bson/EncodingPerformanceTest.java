@@ -0,0 +1,138 @@
+// EncodingPerformanceTest.java
+
+/**
+ *      Copyright (C) 2010 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.bson;
+
+import java.util.*;
+
+import org.bson.io.*;
+import org.bson.types.*;
+
+/**
+ * Encode throughput for typical documents, no server needed.
+ * Run with <code>java org.bson.EncodingPerformanceTest [seconds per trial]</code>.
+ */
+public class EncodingPerformanceTest {
+
+    static BSONObject small(){
+        return new BasicBSONObject( "_id" , new ObjectId() ).append( "x" , 1 );
+    }
+
+    static BSONObject medium(){
+        return new BasicBSONObject( "_id" , new ObjectId() )
+            .append( "integer" , 5 )
+            .append( "number" , 5.05 )
+            .append( "boolean" , false )
+            .append( "string" , "benchmark" )
+            .append( "date" , new Date() )
+            .append( "array" , Arrays.asList( "test" , "benchmark" ) );
+    }
+
+    static BSONObject large(){
+        List<String> words = new ArrayList<String>();
+        for ( int i=0; i<20; i++ )
+            words.addAll( Arrays.asList( "10gen" , "web" , "open" , "source" , "application" , "paas" ,
+                                         "platform-as-a-service" , "technology" , "helps" , "developers" ,
+                                         "focus" , "building" , "mongodb" , "mongo" ) );
+
+        return new BasicBSONObject( "_id" , new ObjectId() )
+            .append( "base_url" , "http://www.example.com/test-me" )
+            .append( "total_word_count" , 6743 )
+            .append( "access_time" , new Date() )
+            .append( "meta_tags" , new BasicBSONObject( "description" , "i am a long description string" )
+                     .append( "author" , "Holly Man" )
+                     .append( "dynamically_created_meta_tag" , "who know\n what" ) )
+            .append( "page_structure" , new BasicBSONObject( "counted_tags" , 3450 )
+                     .append( "no_of_js_attached" , 10 )
+                     .append( "no_of_images" , 6 ) )
+            .append( "harvested_words" , words );
+    }
+
+    static void run( String name , BSONObject o , long millis ){
+        BSONEncoder e = new BSONEncoder();
+        BasicOutputBuffer buf = new BasicOutputBuffer();
+
+        // warm up
+        for ( int i=0; i<20000; i++ ){
+            buf.setPosition( 0 );
+            e.set( buf );
+            e.putObject( o );
+            e.done();
+        }
+
+        long n = 0;
+        long start = System.currentTimeMillis();
+        long end = start + millis;
+        while ( System.currentTimeMillis() < end ){
+            for ( int i=0; i<1000; i++ ){
+                buf.setPosition( 0 );
+                e.set( buf );
+                e.putObject( o );
+                e.done();
+            }
+            n += 1000;
+        }
+        long total = System.currentTimeMillis() - start;
+        System.out.println( "encode " + name + " (" + buf.getPosition() + " bytes): " + (long)( n / ( total / 1000.0 ) ) + " ops/sec" );
+    }
+
+    static String text( String word ){
+        StringBuilder buf = new StringBuilder();
+        while ( buf.length() < 200 )
+            buf.append( word ).append( ' ' );
+        return buf.toString();
+    }
+
+    static void runStrings( String name , String s , long millis ){
+        BSONObject o = new BasicBSONObject( "a" , s ).append( "b" , s ).append( "c" , s );
+        BSONEncoder e = new BSONEncoder();
+        PoolOutputBuffer buf = new PoolOutputBuffer();
+
+        for ( int i=0; i<20000; i++ ){
+            buf.reset();
+            e.set( buf );
+            e.putObject( o );
+            e.done();
+        }
+
+        long n = 0;
+        long start = System.currentTimeMillis();
+        long end = start + millis;
+        while ( System.currentTimeMillis() < end ){
+            for ( int i=0; i<1000; i++ ){
+                buf.reset();
+                e.set( buf );
+                e.putObject( o );
+                e.done();
+            }
+            n += 1000;
+        }
+        long total = System.currentTimeMillis() - start;
+        System.out.println( "encode strings " + name + " (" + buf.size() + " bytes): " + (long)( n / ( total / 1000.0 ) ) + " ops/sec" );
+    }
+
+    public static void main( String args[] ){
+        long millis = args.length > 0 ? Long.parseLong( args[0] ) * 1000 : 3000;
+        run( "small" , small() , millis );
+        run( "medium" , medium() , millis );
+        run( "large" , large() , millis );
+        runStrings( "ascii" , text( "mongo" ) , millis );
+        runStrings( "latin-1" , text( "cr\u00e8me br\u00fbl\u00e9e" ) , millis );
+        runStrings( "cjk" , text( "\u65e5\u672c\u8a9e" ) , millis );
+    }
+}
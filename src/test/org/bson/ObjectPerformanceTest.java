@@ -0,0 +1,100 @@
+// ObjectPerformanceTest.java
+
+/**
+ *      Copyright (C) 2010 10gen Inc.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.bson;
+
+import java.util.*;
+
+/**
+ * Heap per document and get/put speed of {@link BasicBSONObject} vs {@link CompactBSONObject}, no server needed.
+ * Run with <code>java org.bson.ObjectPerformanceTest [seconds per trial]</code>.
+ */
+public class ObjectPerformanceTest {
+
+    static final String[] KEYS = new String[]{ "_id" , "name" , "email" , "age" , "created" ,
+                                               "updated" , "tags" , "score" , "active" , "address" };
+
+    static abstract class Maker {
+        abstract BSONObject make();
+    }
+
+    static final Maker BASIC = new Maker(){
+            BSONObject make(){
+                return new BasicBSONObject();
+            }
+        };
+
+    static final Maker COMPACT = new Maker(){
+            BSONObject make(){
+                return new CompactBSONObject();
+            }
+        };
+
+    static BSONObject fill( BSONObject o ){
+        for ( int i=0; i<KEYS.length; i++ )
+            o.put( KEYS[i] , VALUE );
+        return o;
+    }
+
+    static long used(){
+        Runtime r = Runtime.getRuntime();
+        for ( int i=0; i<3; i++ )
+            System.gc();
+        return r.totalMemory() - r.freeMemory();
+    }
+
+    static void heap( String name , Maker m ){
+        final int n = 100000;
+        BSONObject[] all = new BSONObject[n];
+        long before = used();
+        for ( int i=0; i<n; i++ )
+            all[i] = fill( m.make() );
+        long after = used();
+        System.out.println( name + " " + KEYS.length + " fields: " + ( ( after - before ) / n ) + " bytes/object" + ( all[0] == null ? "" : "" ) );
+    }
+
+    static void speed( String name , Maker m , long millis ){
+        long n = 0;
+        long sum = 0;
+        long start = System.currentTimeMillis();
+        long end = start + millis;
+        while ( System.currentTimeMillis() < end ){
+            for ( int i=0; i<1000; i++ ){
+                BSONObject o = fill( m.make() );
+                for ( int j=0; j<KEYS.length; j++ )
+                    if ( o.get( KEYS[j] ) != null )
+                        sum++;
+            }
+            n += 1000;
+        }
+        long total = System.currentTimeMillis() - start;
+        System.out.println( name + " put+get " + KEYS.length + " fields: " + (long)( n / ( total / 1000.0 ) ) + " objects/sec" + ( sum < 0 ? "" : "" ) );
+    }
+
+    public static void main( String args[] ){
+        long millis = args.length > 0 ? Long.parseLong( args[0] ) * 1000 : 3000;
+        heap( "basic" , BASIC );
+        heap( "compact" , COMPACT );
+        speed( "basic" , BASIC , millis / 3 );
+        speed( "compact" , COMPACT , millis / 3 );
+        speed( "basic" , BASIC , millis );
+        speed( "compact" , COMPACT , millis );
+    }
+
+    static final Object VALUE = "value";
+}
@@ -73,8 +73,136 @@ public class PoolOutputBufferTest extends TestCase {
         assertEquals( a.asString() , b.toString() );
     }
     
+    @Test
+    public void testWriteAscii(){
+        PoolOutputBuffer a = new PoolOutputBuffer();
+        StringBuilder b = new StringBuilder();
+        for ( String x : _data ){
+            assertEquals( x.length() , a.writeAscii( x , 0 ) );
+            b.append( x );
+        }
+        assertEquals( b.length() , a.size() );
+        assertEquals( b.toString() , a.asString() );
+
+        // stops at the first non ASCII character
+        PoolOutputBuffer c = new PoolOutputBuffer();
+        assertEquals( 3 , c.writeAscii( "abc\u00e9def" , 0 ) );
+        assertEquals( 3 , c.size() );
+        assertEquals( 7 , c.writeAscii( "abc\u00e9def" , 4 ) );
+        assertEquals( "abcdef" , c.asString() );
+    }
+
+    @Test
+    public void testEncodeStrings()
+        throws IOException {
+        String[] strings = new String[]{ "ascii" , "caf\u00e9 cr\u00e8me" , "\u65e5\u672c\u8a9e" , "a\ud834\udd1eb" , "" , _data.get( _data.size() - 1 ) + "\u00e9" };
+        for ( String s : strings ){
+            PoolOutputBuffer buf = new PoolOutputBuffer();
+            buf.write( new byte[ PoolOutputBuffer.BUF_SIZE - 2 ] ); // so strings cross into the next chunk
+            BSONEncoder e = new BSONEncoder();
+            e.set( buf );
+            e.writeCString( s );
+            e.done();
+
+            byte[] utf8 = s.getBytes( "UTF-8" );
+            byte[] all = buf.toByteArray();
+            assertEquals( PoolOutputBuffer.BUF_SIZE - 2 + utf8.length + 1 , all.length );
+            assertEquals( s , new String( all , PoolOutputBuffer.BUF_SIZE - 2 , utf8.length , "UTF-8" ) );
+            assertEquals( 0 , all[ all.length - 1 ] );
+        }
+    }
+
+    @Test
+    public void testDirect()
+        throws IOException {
+        // small chunks so everything crosses chunk boundaries
+        DirectBufferPool pool = new DirectBufferPool( 64 , 64 * 4 );
+        DirectOutputBuffer buf = new DirectOutputBuffer( pool );
+
+        BSONObject o = new BasicBSONObject( "_id" , new org.bson.types.ObjectId() ).append( "n" , 5 ).append( "l" , 5000000000L )
+            .append( "d" , 1.5 ).append( "s" , "caf\u00e9 " + _data.get( 5 ) ).append( "b" , new BasicBSONObject( "x" , Arrays.asList( 1 , 2 , 3 ) ) );
+        byte[] expected = BSON.encode( o );
+
+        BSONEncoder e = new BSONEncoder();
+        e.set( buf );
+        e.putObject( o );
+        e.done();
+        assertEquals( expected.length , buf.size() );
+        assertTrue( Arrays.equals( expected , buf.toByteArray() ) );
+        assertEquals( o , BSON.decode( buf.toByteArray() ) );
+
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        assertEquals( expected.length , buf.pipe( java.nio.channels.Channels.newChannel( bout ) ) );
+        assertTrue( Arrays.equals( expected , bout.toByteArray() ) );
+
+        // the views can't write into the chunks
+        ByteBuffer[] views = buf.asByteBuffers();
+        assertEquals( ( expected.length + 63 ) / 64 , views.length );
+        assertEquals( expected.length , views[0].getInt( 0 ) );
+        try {
+            views[0].put( 0 , (byte)1 );
+            assertTrue( false );
+        }
+        catch ( ReadOnlyBufferException ro ){
+        }
+        assertTrue( Arrays.equals( expected , buf.toByteArray() ) );
+
+        // past the budget chunks come from the heap
+        assertEquals( 64L * 4 , pool.getAllocated() );
+        assertTrue( pool.getNumHeap() > 0 );
+
+        // direct chunks are reused after a reset
+        buf.reset();
+        assertEquals( 0 , buf.size() );
+        long heap = pool.getNumHeap();
+        buf.write( new byte[ 64 * 4 ] );
+        assertEquals( 64L * 4 , pool.getAllocated() );
+        assertEquals( heap , pool.getNumHeap() );
+        buf.reset();
+    }
+
+    @Test
+    public void testDirectPool()
+        throws InterruptedException {
+        final DirectBufferPool pool = new DirectBufferPool( 64 , 64 * 2 );
+        ByteBuffer a = pool.get();
+        ByteBuffer b = pool.get();
+        assertTrue( a.isDirect() && b.isDirect() );
+
+        // given back twice it's still only handed out once
+        pool.done( a );
+        pool.done( a );
+        assertTrue( a == pool.get() );
+        ByteBuffer c = pool.get();
+        assertTrue( c != a );
+        assertTrue( ! c.isDirect() );
+
+        // buffers from elsewhere aren't taken
+        pool.done( new DirectBufferPool( 64 , 64 ).get() );
+        pool.done( ByteBuffer.allocateDirect( 64 ) );
+        pool.done( c );
+        assertTrue( ! pool.get().isDirect() );
+        assertEquals( 64L * 2 , pool.getAllocated() );
+
+        // heap chunks are counted from any number of threads
+        long before = pool.getNumHeap();
+        Thread[] threads = new Thread[4];
+        for ( int t=0; t<threads.length; t++ ){
+            threads[t] = new Thread(){
+                    public void run(){
+                        for ( int i=0; i<10000; i++ )
+                            pool.get();
+                    }
+                };
+            threads[t].start();
+        }
+        for ( Thread t : threads )
+            t.join();
+        assertEquals( before + 40000 , pool.getNumHeap() );
+    }
+
     List<String> _data = new ArrayList<String>();
-    
+
     public static void main( String args[] ){
         (new PoolOutputBufferTest()).runConsole();
     }